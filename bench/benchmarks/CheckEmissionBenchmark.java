@@ -0,0 +1,133 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import notnullcheckweaver.CheckPolicy;
+import notnullcheckweaver.NotNullHelper;
+
+import benchmarks.shapes.Customer;
+import benchmarks.shapes.Order;
+import benchmarks.shapes.Polygon;
+
+/**
+ * Compares the run-time cost of the checks for each way of emitting them, against the same code unwoven.
+ * Each subclass runs in a JVM whose agent weaves the shapes in one way; throughput shows the cost in
+ * steady state, and the sampled times show whether the checks add to the tail latency.
+ *
+ * <p>When the weaver gains an option that changes the woven code, add a subclass for it.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public abstract class CheckEmissionBenchmark {
+    Customer customer = new Customer("Alice", "alice@example.com");
+    String a = "a", b = "bb", c = "ccc", d = "dddd";
+    Order order = new Order("1", customer, a, b, c, d);
+    Polygon polygon;
+
+    {
+        int[] xs = new int[64], ys = new int[64];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = (int)(100 * Math.cos(i * Math.PI / 32));
+            ys[i] = (int)(100 * Math.sin(i * Math.PI / 32));
+        }
+        polygon = new Polygon(xs, ys);
+    }
+
+    /** A getter of a not-null field: a field read check and a result check. */
+    @Benchmark
+    public String getter() {
+        return customer.getName();
+    }
+
+    /** A setter of a not-null field: an argument check and a field write check. */
+    @Benchmark
+    public void setter() {
+        customer.setName(a);
+    }
+
+    @Benchmark
+    public int manyArguments() {
+        return customer.score(a, b, c, d);
+    }
+
+    /** Eight argument checks and a result check around a method that does nothing else. */
+    @Benchmark
+    public Object manyReferenceArguments() {
+        return Order.pick(a, b, c, d, a, b, c, d);
+    }
+
+    /** A tight loop that reads not-null fields. */
+    @Benchmark
+    public long fieldReadLoop() {
+        return polygon.doubleArea();
+    }
+
+    /** Reads of not-null fields in a hot method that returns a not-null result. */
+    @Benchmark
+    public int hotResult() {
+        return order.length();
+    }
+
+    @Benchmark
+    public Customer construct() {
+        return new Customer(a, b);
+    }
+
+    /** A constructor that assigns six not-null fields, each checked on assignment and again at its end. */
+    @Benchmark
+    public Order constructManyFields() {
+        return new Order(a, customer, a, b, c, d);
+    }
+
+    @Fork(value = 1)
+    public static class Unwoven extends CheckEmissionBenchmark {
+    }
+
+    @Fork(value = 1, jvmArgsAppend = "-javaagent:notnullcheckweaver.jar=include=benchmarks.shapes.,emit=helper")
+    public static class Helper extends CheckEmissionBenchmark {
+    }
+
+    @Fork(value = 1, jvmArgsAppend = "-javaagent:notnullcheckweaver.jar=include=benchmarks.shapes.,emit=inline")
+    public static class Inline extends CheckEmissionBenchmark {
+    }
+
+    @Fork(value = 1, jvmArgsAppend = "-javaagent:notnullcheckweaver.jar=include=benchmarks.shapes.,emit=inline,elideRedundantReads=true")
+    public static class InlineElideRedundantReads extends CheckEmissionBenchmark {
+    }
+
+    @Fork(value = 1, jvmArgsAppend = "-javaagent:notnullcheckweaver.jar=include=benchmarks.shapes.,emit=inline,invariant=true")
+    public static class InlineInvariant extends CheckEmissionBenchmark {
+    }
+
+    /** The fewest bytes of code per check, so that small methods stay below the inlining limits. */
+    @Fork(value = 1, jvmArgsAppend = "-javaagent:notnullcheckweaver.jar=include=benchmarks.shapes.,emit=compact")
+    public static class Compact extends CheckEmissionBenchmark {
+    }
+
+    @Fork(value = 1, jvmArgsAppend = "-javaagent:notnullcheckweaver.jar=include=benchmarks.shapes.,emit=indy")
+    public static class Indy extends CheckEmissionBenchmark {
+    }
+
+    /** The invokedynamic sites turned off by their policy, which should cost as much as no checks at all. */
+    @Fork(value = 1, jvmArgsAppend = "-javaagent:notnullcheckweaver.jar=include=benchmarks.shapes.,emit=indy")
+    public static class IndyOff extends CheckEmissionBenchmark {
+        @Setup
+        public void turnChecksOff() {
+            NotNullHelper.setCheckPolicy("benchmarks.shapes.", CheckPolicy.OFF);
+        }
+    }
+}
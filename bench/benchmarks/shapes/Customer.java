@@ -0,0 +1,23 @@
+package benchmarks.shapes;
+
+public class Customer {
+    private String name;
+    private String email;
+
+    public Customer(String name, String email) {
+        this.name = name;
+        this.email = email;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int score(String first, String second, String third, String fourth) {
+        return first.length() + second.length() + third.length() + fourth.length() + email.length();
+    }
+}
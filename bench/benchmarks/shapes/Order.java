@@ -0,0 +1,36 @@
+package benchmarks.shapes;
+
+public class Order {
+    private final String id;
+    private final Customer customer;
+    private final String product;
+    private final String currency;
+    private final String street;
+    private final String city;
+
+    public Order(String id, Customer customer, String product, String currency, String street, String city) {
+        this.id = id;
+        this.customer = customer;
+        this.product = product;
+        this.currency = currency;
+        this.street = street;
+        this.city = city;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Customer getCustomer() {
+        return customer;
+    }
+
+    /** Returns its last argument; the checks of the other seven are all that the method does. */
+    public static Object pick(Object a, Object b, Object c, Object d, Object e, Object f, Object g, Object h) {
+        return h;
+    }
+
+    public int length() {
+        return product.length() + currency.length() + street.length() + city.length();
+    }
+}
@@ -0,0 +1,22 @@
+package benchmarks.shapes;
+
+public class Polygon {
+    private final int[] xs;
+    private final int[] ys;
+
+    public Polygon(int[] xs, int[] ys) {
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    /** Twice the signed area; reads both fields twice per vertex, without calls in between. */
+    public long doubleArea() {
+        long area = 0;
+        int n = xs.length;
+        for (int i = 0; i < n; i++) {
+            int j = i + 1 == n ? 0 : i + 1;
+            area += (long)xs[i] * ys[j] - (long)xs[j] * ys[i];
+        }
+        return area;
+    }
+}
@@ -0,0 +1,7 @@
+/**
+ * Code shapes whose checks are measured by the benchmarks; woven by the forked benchmark JVMs.
+ */
+@NotNull
+package benchmarks.shapes;
+
+import notnullcheckweaver.NotNull;
@@ -0,0 +1,204 @@
+package notnullcheckweaver.weaver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Class files of the running JDK and of the class path, and generated ones, used as benchmark input.
+ */
+final class ClassCorpus {
+    private ClassCorpus() {}
+
+    /** Returns the internal names of the classes of the running JDK. */
+    static List<String> jdkClassNames() throws IOException {
+        final List<String> names = new ArrayList<String>();
+        File rtJar = new File(System.getProperty("java.home"), "lib/rt.jar");
+        if (rtJar.exists()) {
+            ZipFile zip = new ZipFile(rtJar);
+            try {
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                    String name = e.nextElement().getName();
+                    if (name.endsWith(".class"))
+                        names.add(name.substring(0, name.length() - ".class".length()));
+                }
+            } finally {
+                zip.close();
+            }
+        } else {
+            // Java 9 and later: /modules/<module>/<class name>.class
+            FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+            Files.walkFileTree(jrt.getPath("/modules"), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (file.getNameCount() > 2 && file.toString().endsWith(".class")) {
+                        String name = file.subpath(2, file.getNameCount()).toString();
+                        names.add(name.substring(0, name.length() - ".class".length()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return names;
+    }
+
+    static byte[] readFully(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = is.read(buffer)) > 0; )
+                out.write(buffer, 0, n);
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    /** Whether the weaver's ASM version can read the class file; it reads class files up to Java 7. */
+    static boolean isReadable(byte[] classfile) {
+        int major = (classfile[6] & 0xFF) << 8 | classfile[7] & 0xFF;
+        return major <= Opcodes.V1_7;
+    }
+
+    /**
+     * Returns up to <code>limit</code> readable class files of the running JDK, followed by those of
+     * the jars and directories on the class path. A JDK newer than Java 7 contributes none.
+     */
+    static List<byte[]> realClasses(int limit) throws IOException {
+        List<byte[]> classes = new ArrayList<byte[]>();
+        ClassLoader loader = ClassLoader.getSystemClassLoader();
+        for (String name : jdkClassNames()) {
+            InputStream is = loader.getResourceAsStream(name+".class");
+            if (is == null)
+                continue;
+            byte[] classfile = readFully(is);
+            if (!isReadable(classfile))
+                break; // The JDK's classes all have the same version
+            if (classes.size() == limit)
+                return classes;
+            classes.add(classfile);
+        }
+        for (String element : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            File file = new File(element);
+            if (file.isDirectory())
+                addClasses(file, classes, limit);
+            else if (file.getName().endsWith(".jar"))
+                addClasses(new ZipFile(file), classes, limit);
+        }
+        return classes;
+    }
+
+    private static void addClasses(ZipFile zip, List<byte[]> classes, int limit) throws IOException {
+        try {
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements() && classes.size() < limit; ) {
+                ZipEntry entry = e.nextElement();
+                if (!entry.getName().endsWith(".class"))
+                    continue;
+                byte[] classfile = readFully(zip.getInputStream(entry));
+                if (isReadable(classfile))
+                    classes.add(classfile);
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static void addClasses(File directory, List<byte[]> classes, int limit) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            if (classes.size() == limit)
+                return;
+            if (file.isDirectory()) {
+                addClasses(file, classes, limit);
+            } else if (file.getName().endsWith(".class")) {
+                byte[] classfile = Files.readAllBytes(file.toPath());
+                if (isReadable(classfile))
+                    classes.add(classfile);
+            }
+        }
+    }
+
+    /**
+     * Generates a @NotNull class in the style of application code: reference fields assigned by
+     * the constructor, getters and setters, and methods with several reference parameters.
+     * The index varies the number of fields and methods.
+     */
+    static byte[] syntheticClass(int index) {
+        String owner = "synthetic/Generated"+index;
+        int fieldCount = 2 + index % 7;
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, owner, null, "java/lang/Object", null);
+        writer.visitAnnotation(NotNullCheckWeaver.notNullAnnotationDesc, false).visitEnd();
+        StringBuilder constructorDesc = new StringBuilder("(");
+        for (int i = 0; i < fieldCount; i++) {
+            writer.visitField(Opcodes.ACC_PRIVATE, "field"+i, "Ljava/lang/String;", null, null).visitEnd();
+            constructorDesc.append("Ljava/lang/String;");
+        }
+        MethodVisitor mv = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", constructorDesc.append(")V").toString(), null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        for (int i = 0; i < fieldCount; i++) {
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitVarInsn(Opcodes.ALOAD, i + 1);
+            mv.visitFieldInsn(Opcodes.PUTFIELD, owner, "field"+i, "Ljava/lang/String;");
+        }
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        for (int i = 0; i < fieldCount; i++) {
+            mv = writer.visitMethod(Opcodes.ACC_PUBLIC, "getField"+i, "()Ljava/lang/String;", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, owner, "field"+i, "Ljava/lang/String;");
+            mv.visitInsn(Opcodes.ARETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+            mv = writer.visitMethod(Opcodes.ACC_PUBLIC, "setField"+i, "(Ljava/lang/String;)V", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitFieldInsn(Opcodes.PUTFIELD, owner, "field"+i, "Ljava/lang/String;");
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+            // Concatenates the field with i + 1 arguments
+            StringBuilder desc = new StringBuilder("(");
+            for (int j = 0; j <= i; j++)
+                desc.append("Ljava/lang/String;");
+            mv = writer.visitMethod(Opcodes.ACC_PUBLIC, "concat"+i, desc.append(")Ljava/lang/String;").toString(), null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, owner, "field"+i, "Ljava/lang/String;");
+            for (int j = 0; j <= i; j++) {
+                mv.visitVarInsn(Opcodes.ALOAD, j + 1);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "concat", "(Ljava/lang/String;)Ljava/lang/String;");
+            }
+            mv.visitInsn(Opcodes.ARETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,102 @@
+package notnullcheckweaver.weaver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost per class name of deciding whether to weave a class.
+ *
+ * <p>The names are those of the JDK classes (none of which are included), mixed with
+ * names of application classes under the include prefix. The rejection rate of the
+ * mixed corpus is printed during setup.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassNameFilterBenchmark {
+    static final int CORPUS_SIZE = 16384;
+    static final String AGENT_ARGS = "include=com.acme.,exclude=com.acme.generated.";
+    static final String LEGACY_PREFIX = "com/acme/";
+
+    String[] mixed = new String[CORPUS_SIZE];
+    String[] rejected = new String[CORPUS_SIZE];
+    ClassNameFilter filter;
+
+    @Setup
+    public void setUp() throws IOException {
+        filter = WeaverOptions.parse(AGENT_ARGS).createClassNameFilter();
+        List<String> jdkNames = ClassCorpus.jdkClassNames();
+        List<String> appNames = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            appNames.add("com/acme/service/Service"+i);
+            appNames.add("com/acme/service/Service"+i+"$1");
+            appNames.add("com/acme/generated/Message"+i);
+        }
+        int rejectedCount = 0;
+        for (int i = 0; i < CORPUS_SIZE; i++) {
+            // One in ten names is an application class.
+            mixed[i] = i % 10 == 0 ? appNames.get(i / 10 % appNames.size()) : jdkNames.get(i % jdkNames.size());
+            rejected[i] = jdkNames.get(i % jdkNames.size());
+            if (!accept(mixed[i]))
+                rejectedCount++;
+        }
+        System.out.println();
+        System.out.println("Rejection rate: "+rejectedCount+"/"+CORPUS_SIZE+" = "+(100.0 * rejectedCount / CORPUS_SIZE)+"%");
+    }
+
+    boolean accept(String className) {
+        return filter.accepts(className) && !NotNullClassFileTransformer.isSkippedClass(className);
+    }
+
+    static boolean legacyAccept(String className) {
+        return !className.endsWith("package-info") && className.startsWith(LEGACY_PREFIX);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public int filterMixed() {
+        int accepted = 0;
+        for (String name : mixed)
+            if (accept(name))
+                accepted++;
+        return accepted;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public int filterRejected() {
+        int accepted = 0;
+        for (String name : rejected)
+            if (accept(name))
+                accepted++;
+        return accepted;
+    }
+
+    /** The single prefix check of earlier versions, for comparison. */
+    @Benchmark
+    @OperationsPerInvocation(CORPUS_SIZE)
+    public int legacyPrefixRejected() {
+        int accepted = 0;
+        for (String name : rejected)
+            if (legacyAccept(name))
+                accepted++;
+        return accepted;
+    }
+}
@@ -0,0 +1,117 @@
+package notnullcheckweaver.weaver;
+
+import java.io.IOException;
+import java.lang.instrument.IllegalClassFormatException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.objectweb.asm.ClassReader;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of the agent's transformer over a corpus of class files, in classes
+ * per second (the score) and bytes per second (the <code>bytes</code> counter), on one thread
+ * and on as many threads as there are processors, all sharing the transformer.
+ *
+ * <p>The corpus holds the class files of the JDK and of the class path that the weaver can read,
+ * and generated application-like classes. Each operation transforms one class, so with
+ * <code>-prof gc</code>, <code>gc.alloc.rate.norm</code> is the allocation per class.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformerBenchmark {
+    static final int REAL_CLASSES = 4096;
+    static final int SYNTHETIC_CLASSES = 1024;
+
+    @Param({"emit=helper", "emit=inline"})
+    public String options;
+
+    byte[][] classfiles;
+    String[] classNames;
+    NotNullClassFileTransformer transformer;
+
+    @Setup
+    public void setUp() throws IOException {
+        WeaverOptions weaverOptions = WeaverOptions.parse(options+",jmx=false");
+        List<byte[]> corpus = new ArrayList<byte[]>();
+        int rejected = 0;
+        for (byte[] classfile : ClassCorpus.realClasses(REAL_CLASSES)) {
+            try {
+                NotNullClassFileTransformer.weave(classfile, false, weaverOptions);
+                corpus.add(classfile);
+            } catch (RuntimeException e) {
+                rejected++; // Such as code the weaver's ASM version cannot handle
+            }
+        }
+        int realCount = corpus.size();
+        for (int i = 0; i < SYNTHETIC_CLASSES; i++)
+            corpus.add(ClassCorpus.syntheticClass(i));
+        classfiles = corpus.toArray(new byte[corpus.size()][]);
+        classNames = new String[classfiles.length];
+        long bytes = 0;
+        for (int i = 0; i < classfiles.length; i++) {
+            classNames[i] = new ClassReader(classfiles[i]).getClassName();
+            bytes += classfiles[i].length;
+        }
+        transformer = new NotNullClassFileTransformer(weaverOptions);
+        System.out.println();
+        System.out.println("Corpus: "+realCount+" real classes ("+rejected+" more could not be woven), "
+            +SYNTHETIC_CLASSES+" synthetic classes, "+bytes / classfiles.length+" bytes per class");
+    }
+
+    /** Each thread walks the corpus from its own starting point, and counts the bytes it transforms. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Cursor {
+        int next;
+        public long bytes;
+
+        @Setup
+        public void setUp(TransformerBenchmark benchmark) {
+            next = (int)(Thread.currentThread().getId() * 7919 % benchmark.classfiles.length);
+        }
+
+        @Setup(Level.Iteration)
+        public void resetCounters() {
+            bytes = 0;
+        }
+    }
+
+    byte[] transformNext(Cursor cursor) throws IllegalClassFormatException {
+        int index = cursor.next;
+        cursor.next = index + 1 == classfiles.length ? 0 : index + 1;
+        byte[] classfile = classfiles[index];
+        cursor.bytes += classfile.length;
+        return transformer.transform(TransformerBenchmark.class.getClassLoader(), classNames[index], null, null, classfile);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public byte[] singleThread(Cursor cursor) throws IllegalClassFormatException {
+        return transformNext(cursor);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public byte[] allThreads(Cursor cursor) throws IllegalClassFormatException {
+        return transformNext(cursor);
+    }
+}
@@ -0,0 +1,104 @@
+package notnullcheckweaver.weaver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-class cost of weaving a class, comparing the single-parse weaver
+ * with the former path that inspected the class in a separate pass first, and with
+ * loading the woven class from a warm cache.
+ *
+ * The classes are woven as if their package were @NotNull, so that every reference
+ * parameter, result and field gets a check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WeaveBenchmark {
+
+    @Param({"org/objectweb/asm/ClassReader", "org/objectweb/asm/MethodWriter", "notnullcheckweaver/weaver/NotNullCodeAdapter"})
+    public String className;
+
+    byte[] classfileBuffer;
+    WeaverOptions options = WeaverOptions.parse(null);
+    File cacheDirectory;
+    WovenClassCache cache;
+
+    static byte[] readClass(String className) throws IOException {
+        InputStream is = WeaveBenchmark.class.getClassLoader().getResourceAsStream(className+".class");
+        if (is == null)
+            throw new IOException("Class "+className+" not found");
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = is.read(buffer)) > 0; )
+                out.write(buffer, 0, n);
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        classfileBuffer = readClass(className);
+        cacheDirectory = File.createTempFile("weavecache", "");
+        cacheDirectory.delete();
+        cache = new WovenClassCache(cacheDirectory, 64L << 20, new byte[0]);
+        cache.put(cache.key(classfileBuffer, true), singlePass(), 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File file : cacheDirectory.listFiles()) {
+            File[] files = file.listFiles();
+            if (files != null)
+                for (File entry : files)
+                    entry.delete();
+            file.delete();
+        }
+        cacheDirectory.delete();
+    }
+
+    @Benchmark
+    public byte[] singlePass() {
+        return NotNullClassFileTransformer.weave(classfileBuffer, true, options);
+    }
+
+    @Benchmark
+    public byte[] cacheHit() {
+        return cache.get(cache.key(classfileBuffer, true));
+    }
+
+    @Benchmark
+    public byte[] twoPass() {
+        NotNullClassInspector inspector = new NotNullClassInspector(true);
+        new ClassReader(classfileBuffer).accept(inspector, ClassReader.SKIP_DEBUG|ClassReader.SKIP_FRAMES|ClassReader.SKIP_CODE);
+
+        ClassReader reader = new ClassReader(classfileBuffer);
+        ClassWriter writer = new ClassWriter(0);
+        reader.accept(new NotNullClassAdapter(writer, new NotNullClassInspector(true), options), 0);
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1 @@
+@NotNull package test.changed; import notnullcheckweaver.NotNull;
\ No newline at end of file
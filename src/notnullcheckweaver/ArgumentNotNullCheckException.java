@@ -8,6 +8,7 @@ public class ArgumentNotNullCheckException extends NotNullCheckException {
 	
 	/** Zero-based; not counting the receiver. */
 	private final int index;
+	private final String parameterName;
 	
 	/**
 	 * Thrown when the argument for a @NotNull parameter is null.
@@ -16,9 +17,26 @@ public class ArgumentNotNullCheckException extends NotNullCheckException {
 	public ArgumentNotNullCheckException(int argumentIndex) {
 		super("Argument for @NotNull parameter "+argumentIndex+" is null.");
 		this.index = argumentIndex;
+		this.parameterName = null;
+	}
+	
+	ArgumentNotNullCheckException(CheckSite site, String parameterName) {
+		super(site);
+		this.index = Integer.parseInt(site.getDetail());
+		this.parameterName = parameterName;
 	}
 	
 	public int getArgumentIndex() {
 		return index;
 	}
+	
+	/** The name of the parameter, if known to the lightweight exception; otherwise null. */
+	public String getParameterName() {
+		return parameterName;
+	}
+	
+	@Override
+	String formatMessage(CheckSite site) {
+		return "Argument for @NotNull parameter "+(parameterName == null ? String.valueOf(index) : parameterName)+" of "+site.getMethod()+" is null.";
+	}
 }
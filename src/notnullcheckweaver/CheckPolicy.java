@@ -0,0 +1,15 @@
+package notnullcheckweaver;
+
+/**
+ * What a check woven with the agent option <code>emit=indy</code> does.
+ * 
+ * @see NotNullHelper#setCheckPolicy(String, CheckPolicy)
+ */
+public enum CheckPolicy {
+	/** Throws a {@link NotNullCheckException} if the value is null; the default. */
+	THROW,
+	/** Counts the times the value is null, without throwing. */
+	COUNT,
+	/** Does nothing; once the calling code is recompiled, the check costs nothing. */
+	OFF
+}
@@ -0,0 +1,72 @@
+package notnullcheckweaver;
+
+import java.io.Serializable;
+
+/**
+ * A check inserted by the weaver, and the number of times it was executed;
+ * only recorded when the weaver is run with the agent option <code>siteCounters=true</code>
+ * (or <code>report=</code><i>file</i>, which names the sites in the report, but does not count them).
+ * Also describes the check that threw a lightweight exception; see {@link NotNullCheckException#getCheckSite()}.
+ * 
+ * @see NotNullHelper#getCheckSites()
+ */
+public final class CheckSite implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
+	private final int id;
+	private final String className;
+	private final String methodName;
+	private final String methodDescriptor;
+	private final String kind;
+	private final String detail;
+	
+	CheckSite(int id, String className, String methodName, String methodDescriptor, String kind, String detail) {
+		this.id = id;
+		this.className = className;
+		this.methodName = methodName;
+		this.methodDescriptor = methodDescriptor;
+		this.kind = kind;
+		this.detail = detail;
+	}
+	
+	public int getId() {
+		return id;
+	}
+	
+	/** The fully qualified name of the class that contains the check. */
+	public String getClassName() {
+		return className;
+	}
+	
+	public String getMethodName() {
+		return methodName;
+	}
+	
+	public String getMethodDescriptor() {
+		return methodDescriptor;
+	}
+	
+	/** One of <code>ARGUMENT</code>, <code>RESULT</code>, <code>FIELD_READ</code>, <code>FIELD_WRITE</code> and <code>CONSTRUCTOR</code>. */
+	public String getKind() {
+		return kind;
+	}
+	
+	/** The zero-based index of the checked argument, or the name of the checked field; null for other checks. */
+	public String getDetail() {
+		return detail;
+	}
+	
+	/** The number of times the check was executed so far. */
+	public long getCount() {
+		return id < 0 ? 0 : CheckSiteCounters.getCount(id);
+	}
+	
+	/** The class name, method name and descriptor, as in <code>mypackage.MyClass.myMethod(Ljava/lang/String;)V</code>. */
+	String getMethod() {
+		return className+"."+methodName+methodDescriptor;
+	}
+	
+	public String toString() {
+		return getMethod()+" "+kind+(detail == null ? "" : " "+detail);
+	}
+}
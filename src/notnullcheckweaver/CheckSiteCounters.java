@@ -0,0 +1,141 @@
+package notnullcheckweaver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the executions of the check sites registered by the weaver.
+ * 
+ * <p>The counters are striped: a thread increments the counter of its own stripe, chosen by its thread ID, so that
+ * threads executing the same check mostly do not contend. The counters are laid out stripe-major, in chunks of
+ * consecutive sites per stripe, each padded with a cache line at both ends, so that no two stripes share a cache
+ * line. Like a <code>LongAdder</code>, a chunk starts with a single stripe, and doubles its stripes when an increment
+ * finds its counter contended, up to about twice as many as there are processors.</p>
+ */
+final class CheckSiteCounters {
+	private CheckSiteCounters() {}
+	
+	private static final int CHUNK_BITS = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	/** One cache line, in longs. */
+	private static final int PADDING = 8;
+	private static final int STRIPE_BITS = stripeBits();
+	private static final int STRIPES = 1 << STRIPE_BITS;
+	/** The number of sites printed at exit. */
+	private static final int DUMP_LIMIT = 50;
+	
+	private static int stripeBits() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		int bits = 1;
+		while (bits < 6 && 1 << bits < processors * 2)
+			bits++;
+		return bits;
+	}
+	
+	/** Guarded by the class lock. */
+	private static final ArrayList<CheckSite> sites = new ArrayList<CheckSite>();
+	/** The counters of a chunk of sites, by stripe. */
+	private static final class Chunk {
+		/** A power of two in length; grows, but keeps the stripes it had, so that no count is lost. */
+		volatile AtomicLongArray[] stripes = {new AtomicLongArray(PADDING + CHUNK_SIZE + PADDING)};
+		
+		/** Doubles the stripes, unless another thread did since they were read, or they are at their maximum. */
+		synchronized void grow(AtomicLongArray[] seen) {
+			if (stripes != seen || seen.length == STRIPES)
+				return;
+			AtomicLongArray[] newStripes = new AtomicLongArray[seen.length * 2];
+			System.arraycopy(seen, 0, newStripes, 0, seen.length);
+			for (int i = seen.length; i < newStripes.length; i++)
+				newStripes[i] = new AtomicLongArray(PADDING + CHUNK_SIZE + PADDING);
+			stripes = newStripes;
+		}
+	}
+	
+	/** The counters, by chunk. A chunk is allocated before its first site is registered. */
+	private static volatile Chunk[] chunks = new Chunk[0];
+	
+	static synchronized int register(String className, String methodName, String methodDescriptor, String kind, String detail) {
+		int id = sites.size();
+		if (id >>> CHUNK_BITS == chunks.length) {
+			Chunk[] newChunks = new Chunk[chunks.length + 1];
+			System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+			newChunks[chunks.length] = new Chunk();
+			chunks = newChunks;
+		}
+		sites.add(new CheckSite(id, className.replace('/', '.'), methodName, methodDescriptor, kind, detail));
+		if (id == 0)
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run() {
+					dump();
+				}
+			});
+		return id;
+	}
+	
+	private static int stripe() {
+		long id = Thread.currentThread().getId();
+		return ((int)id * 0x9E3779B9) >>> (32 - STRIPE_BITS); // Consecutive IDs get distant stripes
+	}
+	
+	static void count(int site) {
+		Chunk chunk = chunks[site >>> CHUNK_BITS];
+		AtomicLongArray[] stripes = chunk.stripes;
+		AtomicLongArray stripe = stripes[stripe() & (stripes.length - 1)];
+		int index = PADDING + (site & (CHUNK_SIZE - 1));
+		long count = stripe.get(index);
+		if (stripe.compareAndSet(index, count, count + 1))
+			return;
+		// Contended; spread the threads over more stripes
+		chunk.grow(stripes);
+		stripes = chunk.stripes;
+		stripes[stripe() & (stripes.length - 1)].getAndIncrement(index);
+	}
+	
+	static long getCount(int site) {
+		long count = 0;
+		for (AtomicLongArray stripe : chunks[site >>> CHUNK_BITS].stripes)
+			count += stripe.get(PADDING + (site & (CHUNK_SIZE - 1)));
+		return count;
+	}
+	
+	/** Returns the sites registered so far, indexed by ID. */
+	static synchronized List<CheckSite> getSitesById() {
+		return new ArrayList<CheckSite>(sites);
+	}
+	
+	/** Returns the sites registered so far, the most executed first. */
+	static List<CheckSite> getSites() {
+		ArrayList<CheckSite> result;
+		synchronized (CheckSiteCounters.class) {
+			result = new ArrayList<CheckSite>(sites);
+		}
+		final long[] counts = new long[result.size()];
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = getCount(i);
+		Collections.sort(result, new Comparator<CheckSite>() {
+			public int compare(CheckSite a, CheckSite b) {
+				long countA = counts[a.getId()], countB = counts[b.getId()];
+				return countA < countB ? 1 : countA > countB ? -1 : a.getId() - b.getId();
+			}
+		});
+		return result;
+	}
+	
+	static void dump() {
+		List<CheckSite> sites = getSites();
+		long total = 0;
+		for (CheckSite site : sites)
+			total += site.getCount();
+		if (total == 0)
+			return; // The sites were registered for the violation report only
+		System.err.println("notnullcheckweaver: "+total+" check executions at "+sites.size()+" check sites; the most executed:");
+		for (CheckSite site : sites.subList(0, Math.min(DUMP_LIMIT, sites.size()))) {
+			if (site.getCount() == 0)
+				break;
+			System.err.println(String.format("%14d  %s", site.getCount(), site));
+		}
+	}
+}
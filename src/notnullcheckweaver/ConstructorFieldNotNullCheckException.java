@@ -13,6 +13,16 @@ public class ConstructorFieldNotNullCheckException extends NotNullCheckException
 		this.fieldName = fieldName;
 	}
 	
+	ConstructorFieldNotNullCheckException(CheckSite site) {
+		super(site);
+		this.fieldName = site.getDetail();
+	}
+	
+	@Override
+	String formatMessage(CheckSite site) {
+		return "Constructor of "+site.getClassName()+" did not initialize @NotNull field "+fieldName+".";
+	}
+	
 	public String getFieldName() {
 		return fieldName;
 	}
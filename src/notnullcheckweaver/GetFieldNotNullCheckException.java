@@ -9,4 +9,13 @@ public class GetFieldNotNullCheckException extends NotNullCheckException {
 	public GetFieldNotNullCheckException() {
 		super("Attempt to read uninitialized @NotNull field.");
 	}
+	
+	GetFieldNotNullCheckException(CheckSite site) {
+		super(site);
+	}
+	
+	@Override
+	String formatMessage(CheckSite site) {
+		return "Attempt to read uninitialized @NotNull field "+site.getDetail()+" in "+site.getMethod()+".";
+	}
 }
@@ -0,0 +1,163 @@
+package notnullcheckweaver;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A check woven as an <code>invokedynamic</code> instruction of type <code>(Object)void</code>.
+ * 
+ * <p>The target of the site does what the site's policy says, guarded by a switch point. Changing
+ * the policy of a site invalidates its switch point, which makes the JVM deoptimize the code that
+ * inlined the target; the next execution of the site links it again, with the new policy. The
+ * target only holds constants and the site itself, so the JIT compiles a site whose policy is
+ * {@link CheckPolicy#OFF} to nothing, and the other sites to a null test.</p>
+ * 
+ * <p>A site is named like a {@link CheckSite}: the class, method and descriptor, the kind, and
+ * the argument index or field name. A policy applies to the sites whose name starts with its
+ * prefix, so it can name a package, a class, a method or a single site; the longest prefix wins.</p>
+ * 
+ * <p>The weaver emits sites for the argument, result, field read and field write checks only; the
+ * checks at the end of constructors and static initializers stay helper calls.</p>
+ */
+final class IndyCheckSite extends MutableCallSite {
+	private static final MethodType CHECK_TYPE = MethodType.methodType(void.class, Object.class);
+	private static final MethodHandle IS_NULL;
+	private static final MethodHandle NOTHING;
+	private static final MethodHandle FAIL;
+	private static final MethodHandle COUNT;
+	private static final MethodHandle RELINK;
+	
+	static {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		try {
+			IS_NULL = lookup.findStatic(IndyCheckSite.class, "isNull", MethodType.methodType(boolean.class, Object.class));
+			NOTHING = MethodHandles.dropArguments(lookup.findStatic(IndyCheckSite.class, "nothing", MethodType.methodType(void.class)), 0, Object.class);
+			MethodType siteType = MethodType.methodType(void.class, IndyCheckSite.class, Object.class);
+			FAIL = lookup.findStatic(IndyCheckSite.class, "fail", siteType);
+			COUNT = lookup.findStatic(IndyCheckSite.class, "count", siteType);
+			RELINK = lookup.findStatic(IndyCheckSite.class, "relink", siteType);
+		} catch (ReflectiveOperationException e) {
+			throw new AssertionError(e);
+		}
+	}
+	
+	/** The sites linked so far, and the policies by prefix; guarded by the class lock. */
+	private static final ArrayList<IndyCheckSite> sites = new ArrayList<IndyCheckSite>();
+	private static final TreeMap<String, CheckPolicy> policies = new TreeMap<String, CheckPolicy>();
+	
+	private final String name;
+	private final String kind;
+	private final String detail;
+	/** Guarded by the class lock. */
+	private SwitchPoint switchPoint;
+	private final AtomicLong violations = new AtomicLong();
+	
+	private IndyCheckSite(String name, String kind, String detail) {
+		super(CHECK_TYPE);
+		this.name = name;
+		this.kind = kind;
+		this.detail = detail;
+	}
+	
+	static CallSite bootstrap(Class<?> caller, MethodType type, String methodName, String methodDescriptor, String kind, String detail) {
+		if (!type.equals(CHECK_TYPE))
+			throw new IllegalArgumentException("Bad type of check site: "+type);
+		String name = caller.getName()+"."+methodName+methodDescriptor+" "+kind+(detail.length() == 0 ? "" : " "+detail);
+		IndyCheckSite site = new IndyCheckSite(name, kind, detail);
+		synchronized (IndyCheckSite.class) {
+			sites.add(site);
+		}
+		site.link();
+		return site;
+	}
+	
+	private static CheckPolicy getPolicy(String name) {
+		for (Map.Entry<String, CheckPolicy> entry = policies.floorEntry(name); entry != null; entry = policies.lowerEntry(entry.getKey()))
+			if (name.startsWith(entry.getKey()))
+				return entry.getValue();
+		return CheckPolicy.THROW;
+	}
+	
+	private void link() {
+		SwitchPoint switchPoint = new SwitchPoint();
+		CheckPolicy policy;
+		synchronized (IndyCheckSite.class) {
+			this.switchPoint = switchPoint;
+			policy = getPolicy(name);
+		}
+		MethodHandle target;
+		switch (policy) {
+		case OFF:
+			target = NOTHING;
+			break;
+		case COUNT:
+			target = MethodHandles.guardWithTest(IS_NULL, COUNT.bindTo(this), NOTHING);
+			break;
+		default:
+			target = MethodHandles.guardWithTest(IS_NULL, FAIL.bindTo(this), NOTHING);
+		}
+		// If the policy has changed since it was read, the switch point is invalid already.
+		setTarget(switchPoint.guardWithTest(target, RELINK.bindTo(this)));
+	}
+	
+	/** Sets the policy of the sites whose name starts with the prefix; null removes the policy of the prefix. */
+	static void setPolicy(String prefix, CheckPolicy policy) {
+		ArrayList<SwitchPoint> invalid = new ArrayList<SwitchPoint>();
+		synchronized (IndyCheckSite.class) {
+			if (policy == null)
+				policies.remove(prefix);
+			else
+				policies.put(prefix, policy);
+			for (IndyCheckSite site : sites)
+				if (site.name.startsWith(prefix))
+					invalid.add(site.switchPoint);
+		}
+		SwitchPoint.invalidateAll(invalid.toArray(new SwitchPoint[invalid.size()]));
+	}
+	
+	/** Returns the number of null values seen by each site with the policy {@link CheckPolicy#COUNT}, if not zero. */
+	static Map<String, Long> getViolations() {
+		LinkedHashMap<String, Long> result = new LinkedHashMap<String, Long>();
+		synchronized (IndyCheckSite.class) {
+			for (IndyCheckSite site : sites)
+				if (site.violations.get() != 0)
+					result.put(site.name, site.violations.get());
+		}
+		return result;
+	}
+	
+	private static boolean isNull(Object value) {
+		return value == null;
+	}
+	
+	private static void nothing() {}
+	
+	private static void fail(IndyCheckSite site, Object value) {
+		if (site.kind.equals("ARGUMENT"))
+			throw new ArgumentNotNullCheckException(Integer.parseInt(site.detail));
+		if (site.kind.equals("RESULT"))
+			throw new ResultNotNullCheckException();
+		if (site.kind.equals("FIELD_READ"))
+			throw new GetFieldNotNullCheckException();
+		// FIELD_WRITE, the only other kind of site
+		throw new PutFieldNotNullCheckException();
+	}
+	
+	private static void count(IndyCheckSite site, Object value) {
+		site.violations.incrementAndGet();
+	}
+	
+	private static void relink(IndyCheckSite site, Object value) throws Throwable {
+		site.link();
+		site.getTarget().invokeExact(value);
+	}
+}
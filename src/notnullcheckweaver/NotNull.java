@@ -16,6 +16,11 @@ import java.lang.annotation.ElementType;
  * at field reads that the field already has a non-null value,
  * and at the end of each constructor (or static initializer for static fields) that the field has been initialized.
  * Note that only accesses within the declaring class are checked.</p>     
+ * 
+ * <p>With the agent option <code>invariant=true</code>, field reads are checked only within constructors and
+ * static initializers: elsewhere, the assignment and construction checks already ensure that the field is not null,
+ * unless it was assigned through reflection or deserialization, or read through a <code>this</code> reference
+ * that escaped from a constructor.</p>
  */
 @Documented
 @Target({ElementType.PACKAGE, ElementType.TYPE, ElementType.FIELD, ElementType.PARAMETER, ElementType.METHOD})
@@ -4,8 +4,39 @@ package notnullcheckweaver;
  * Base class for the exceptions thrown by the not null checks. 
  */
 public abstract class NotNullCheckException extends RuntimeException {
+	/** The check that failed; only known to the lightweight exceptions. */
+	private final CheckSite site;
+	
 	public NotNullCheckException(String message) {
 		super(message);
+		this.site = null;
+	}
+	
+	/**
+	 * A lightweight exception, as thrown by the checks woven with the agent option <code>lightExceptions=true</code>:
+	 * it has no stack trace, and its message is only formatted when it is asked for.
+	 */
+	NotNullCheckException(CheckSite site) {
+		super(null, null, false, false);
+		this.site = site;
+	}
+	
+	/**
+	 * Returns the check that failed, if the class was woven with the agent option <code>lightExceptions=true</code>;
+	 * otherwise null. Its count is zero.
+	 */
+	public CheckSite getCheckSite() {
+		return site;
+	}
+	
+	@Override
+	public String getMessage() {
+		return site == null ? super.getMessage() : formatMessage(site);
+	}
+	
+	/** Formats the message of a lightweight exception. */
+	String formatMessage(CheckSite site) {
+		return "@NotNull check failed: "+site;
 	}
 
 	private static final long serialVersionUID = 1L;
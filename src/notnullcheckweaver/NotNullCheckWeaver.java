@@ -29,6 +29,28 @@ public final class NotNullCheckWeaver {
      * <pre>java -javaagent:notnullcheckweaver.jar mypackage.MyMainClass</pre>
      */
     public static void premain(String agentArgs, Instrumentation inst) {
+        invokeWeaver("premain", agentArgs, inst);
+    }
+    
+    /**
+     * Called by the JVM when the weaver is loaded into a running JVM through the attach API.
+     * Loading it again passes the new agent arguments to the running weaver, for example
+     * <code>disable=mypackage.</code> to turn off the checks of a package.
+     */
+    public static void agentmain(String agentArgs, Instrumentation inst) {
+        invokeWeaver("agentmain", agentArgs, inst);
+    }
+    
+    /** The weaver's entry point class; loaded once, so that a later agentmain call reaches the running weaver. */
+    private static Class<?> weaver;
+    
+    private static synchronized Class<?> getWeaver() throws ClassNotFoundException {
+        if (weaver == null)
+            weaver = createWeaverLoader().loadClass("notnullcheckweaver.weaver.NotNullCheckWeaver");
+        return weaver;
+    }
+    
+    private static URLClassLoader createWeaverLoader() {
         File baseDir = getJarBaseDir();
         File weaverJarFile = new File(baseDir, "notnullcheckweaver-weaver.jar");
         if (!weaverJarFile.exists())
@@ -41,7 +63,7 @@ public final class NotNullCheckWeaver {
         } catch (MalformedURLException e) {
             throw new RuntimeException(e);
         }
-        URLClassLoader loader = new URLClassLoader(new URL[] {weaverJar}) {
+        return new URLClassLoader(new URL[] {weaverJar}) {
             public Class loadClass(String className) throws ClassNotFoundException {
                 // Look here first, then in parent class loader.
                 try {
@@ -51,9 +73,11 @@ public final class NotNullCheckWeaver {
                 }
             }
         };
+    }
+    
+    private static void invokeWeaver(String method, String agentArgs, Instrumentation inst) {
         try {
-            Class<?> weaver = loader.loadClass("notnullcheckweaver.weaver.NotNullCheckWeaver");
-            weaver.getMethod("premain", new Class[] {String.class, Instrumentation.class}).invoke(null, new Object[] {agentArgs, inst});
+            getWeaver().getMethod(method, new Class[] {String.class, Instrumentation.class}).invoke(null, new Object[] {agentArgs, inst});
         } catch (ClassNotFoundException e) {
             throw new RuntimeException(e);
         } catch (IllegalAccessException e) {
@@ -1,5 +1,12 @@
 package notnullcheckweaver;
 
+import java.io.IOException;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Contains methods used by the generated code.   
  */
@@ -35,4 +42,140 @@ public final class NotNullHelper {
 		if (object == null)
 			throw new StaticInitializerFieldNotNullCheckException(fieldName);
 	}
+	
+	// The following methods check several arguments in a single call, for the agent option emit=compact.
+	// Bit i of the mask is set for each argument index i checked; the arguments are passed in the order of their indexes.
+	
+	public static void checkArgumentsNotNull(Object object1, Object object2, int indexes) {
+		if (object1 == null || object2 == null)
+			throw new ArgumentNotNullCheckException(argumentIndex(indexes, object1 == null ? 0 : 1));
+	}
+	
+	public static void checkArgumentsNotNull(Object object1, Object object2, Object object3, int indexes) {
+		if (object1 == null || object2 == null || object3 == null)
+			throw new ArgumentNotNullCheckException(argumentIndex(indexes, object1 == null ? 0 : object2 == null ? 1 : 2));
+	}
+	
+	public static void checkArgumentsNotNull(Object object1, Object object2, Object object3, Object object4, int indexes) {
+		if (object1 == null || object2 == null || object3 == null || object4 == null)
+			throw new ArgumentNotNullCheckException(argumentIndex(indexes, object1 == null ? 0 : object2 == null ? 1 : object3 == null ? 2 : 3));
+	}
+	
+	/** Returns the argument index of the given bit among the bits set in the mask. */
+	private static int argumentIndex(int indexes, int bit) {
+		for (; bit > 0; bit--)
+			indexes &= indexes - 1;
+		return Integer.numberOfTrailingZeros(indexes);
+	}
+	
+	// The following methods are called by the out-of-line failure paths of inlined checks.
+	// They return the exception so that the generated code ends with an athrow instruction.
+	
+	public static NotNullCheckException newArgumentNotNullCheckException(int index) {
+		return new ArgumentNotNullCheckException(index);
+	}
+	
+	public static NotNullCheckException newResultNotNullCheckException() {
+		return new ResultNotNullCheckException();
+	}
+	
+	public static NotNullCheckException newPutFieldNotNullCheckException() {
+		return new PutFieldNotNullCheckException();
+	}
+	
+	public static NotNullCheckException newGetFieldNotNullCheckException() {
+		return new GetFieldNotNullCheckException();
+	}
+	
+	public static NotNullCheckException newConstructorFieldNotNullCheckException(String fieldName) {
+		return new ConstructorFieldNotNullCheckException(fieldName);
+	}
+	
+	// The following methods throw the lightweight exceptions of the agent option lightExceptions=true.
+	// The site names the check, as in CheckSite.toString(), followed by the parameter name, if known, for an argument.
+	
+	public static void checkNotNull(Object object, String site) {
+		if (object == null)
+			throw newNotNullCheckException(site);
+	}
+	
+	public static NotNullCheckException newNotNullCheckException(String site) {
+		String[] parts = site.split(" ");
+		String method = parts[0];
+		int paren = method.indexOf('(');
+		int dot = method.lastIndexOf('.', paren);
+		String kind = parts[1];
+		CheckSite checkSite = new CheckSite(-1, method.substring(0, dot), method.substring(dot + 1, paren), method.substring(paren),
+				kind, parts.length > 2 ? parts[2] : null);
+		if (kind.equals("ARGUMENT"))
+			return new ArgumentNotNullCheckException(checkSite, parts.length > 3 ? parts[3] : null);
+		if (kind.equals("RESULT"))
+			return new ResultNotNullCheckException(checkSite);
+		if (kind.equals("FIELD_READ"))
+			return new GetFieldNotNullCheckException(checkSite);
+		if (kind.equals("FIELD_WRITE"))
+			return new PutFieldNotNullCheckException(checkSite);
+		if (checkSite.getMethodName().equals("<clinit>"))
+			return new StaticInitializerFieldNotNullCheckException(checkSite);
+		return new ConstructorFieldNotNullCheckException(checkSite);
+	}
+	
+	// The following methods support the violation report of the agent option report=file.
+	
+	/** Called by the weaver; appends the violations found by the checks of the report mode to the given file. */
+	public static void startViolationReport(String path) throws IOException {
+		ViolationReporter.start(path);
+	}
+	
+	/** The check of the report mode: records a violation at the given site if the value is null, and returns. */
+	public static void reportIfNull(Object object, int site) {
+		if (object == null) {
+			ViolationReporter reporter = ViolationReporter.reporter;
+			if (reporter != null)
+				reporter.record(site);
+		}
+	}
+	
+	// The following methods support the per-site counters of the agent option siteCounters=true.
+	
+	/** Called by the weaver; returns the ID of a new check site. */
+	public static int registerCheckSite(String className, String methodName, String methodDescriptor, String kind, String detail) {
+		return CheckSiteCounters.register(className, methodName, methodDescriptor, kind, detail);
+	}
+	
+	public static void countCheckSite(int site) {
+		CheckSiteCounters.count(site);
+	}
+	
+	/**
+	 * Returns the check sites woven so far with the agent option <code>siteCounters=true</code>, the most executed first.
+	 * The same sites, up to fifty, are printed to the standard error stream at exit.
+	 */
+	public static List<CheckSite> getCheckSites() {
+		return CheckSiteCounters.getSites();
+	}
+	
+	// The following methods support the check sites of the agent option emit=indy.
+	
+	/** The bootstrap method of the check sites; the static arguments name the site, with an empty detail for none. */
+	public static CallSite bootstrapCheck(MethodHandles.Lookup caller, String name, MethodType type,
+			String methodName, String methodDescriptor, String kind, String detail) {
+		return IndyCheckSite.bootstrap(caller.lookupClass(), type, methodName, methodDescriptor, kind, detail);
+	}
+	
+	/**
+	 * Sets the policy of the checks woven with <code>emit=indy</code> whose site name starts with the prefix,
+	 * or removes the policy of the prefix if <code>policy</code> is null. A site name is formed like
+	 * {@link CheckSite#toString()}, as in <code>mypackage.MyClass.myMethod(Ljava/lang/String;)V ARGUMENT 0</code>,
+	 * so the prefix can be a package, a class, a method or a single check. If several prefixes match, the longest one
+	 * applies. Sites whose policy changes are linked again, without retransforming their class.
+	 */
+	public static void setCheckPolicy(String prefix, CheckPolicy policy) {
+		IndyCheckSite.setPolicy(prefix, policy);
+	}
+	
+	/** Returns the number of null values counted by each site with the policy {@link CheckPolicy#COUNT}, by site name. */
+	public static Map<String, Long> getCheckViolations() {
+		return IndyCheckSite.getViolations();
+	}
 }
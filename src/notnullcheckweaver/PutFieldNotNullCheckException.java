@@ -9,4 +9,13 @@ public class PutFieldNotNullCheckException extends NotNullCheckException {
 	public PutFieldNotNullCheckException() {
 		super("Attempt to assign null to @NotNull field.");
 	}
+	
+	PutFieldNotNullCheckException(CheckSite site) {
+		super(site);
+	}
+	
+	@Override
+	String formatMessage(CheckSite site) {
+		return "Attempt to assign null to @NotNull field "+site.getDetail()+" in "+site.getMethod()+".";
+	}
 }
@@ -9,4 +9,13 @@ public class ResultNotNullCheckException extends NotNullCheckException {
 	public ResultNotNullCheckException() {
 		super("Returning null from a @NotNull method.");
 	}
+	
+	ResultNotNullCheckException(CheckSite site) {
+		super(site);
+	}
+	
+	@Override
+	String formatMessage(CheckSite site) {
+		return "Returning null from @NotNull method "+site.getMethod()+".";
+	}
 }
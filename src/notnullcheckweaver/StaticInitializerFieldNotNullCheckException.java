@@ -13,6 +13,16 @@ public class StaticInitializerFieldNotNullCheckException extends NotNullCheckExc
 		this.fieldName = fieldName;
 	}
 	
+	StaticInitializerFieldNotNullCheckException(CheckSite site) {
+		super(site);
+		this.fieldName = site.getDetail();
+	}
+	
+	@Override
+	String formatMessage(CheckSite site) {
+		return "Static initializer of "+site.getClassName()+" did not initialize @NotNull field "+fieldName+".";
+	}
+	
 	public String getFieldName() {
 		return fieldName;
 	}
@@ -0,0 +1,135 @@
+package notnullcheckweaver;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the violations found by the checks woven with the agent option <code>report=</code><i>file</i>,
+ * and writes them to the file, instead of throwing.
+ * 
+ * <p>A violation is recorded in a bounded ring buffer, as the check site, the thread ID and the time;
+ * recording it neither locks nor allocates. The producers claim a slot by advancing the tail with a
+ * compare-and-set, and publish it by setting the slot's sequence number, in the manner of Vyukov's bounded
+ * queue. If the buffer is full, the record is dropped and counted, so a burst of violations never blocks
+ * the checking thread. A daemon thread drains the buffer and writes the records in batches.</p>
+ * 
+ * <p>Each line of the file holds the time in milliseconds since the epoch, the thread ID and the name of the
+ * check site, as in {@link CheckSite#toString()}. A line starting with <code>#</code> reports dropped records.</p>
+ */
+final class ViolationReporter extends Thread {
+	private static final int CAPACITY = 1 << 14;
+	private static final int MASK = CAPACITY - 1;
+	/** How long the writer waits when the buffer is empty. */
+	private static final long IDLE_NANOS = 10000000L;
+	
+	/** The reporter, once started; read by the checks. */
+	static volatile ViolationReporter reporter;
+	
+	private final AtomicLong tail = new AtomicLong();
+	/** Only read and written by the writer thread. */
+	private long head;
+	/** A slot holds a record for ticket t when its sequence number is t + 1, and is free for ticket t when it is t. */
+	private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+	private final int[] sites = new int[CAPACITY];
+	private final long[] threads = new long[CAPACITY];
+	private final long[] times = new long[CAPACITY];
+	private final AtomicLong dropped = new AtomicLong();
+	private long droppedReported;
+	private final Writer writer;
+	
+	private ViolationReporter(Writer writer) {
+		super("notnullcheckweaver violation reporter");
+		setDaemon(true);
+		this.writer = writer;
+		for (int i = 0; i < CAPACITY; i++)
+			sequences.set(i, i);
+	}
+	
+	static synchronized void start(String path) throws IOException {
+		if (reporter != null)
+			throw new IllegalStateException("The violation report is already started");
+		final ViolationReporter started = new ViolationReporter(new OutputStreamWriter(new FileOutputStream(path, true), "UTF-8"));
+		started.start();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				started.drainAndFlush();
+			}
+		});
+		reporter = started;
+	}
+	
+	/** Records a violation at the given site; returns false if the buffer is full and the record was dropped. */
+	boolean record(int site) {
+		long ticket = tail.get();
+		for (;;) {
+			int index = (int)ticket & MASK;
+			long sequence = sequences.get(index);
+			if (sequence == ticket) {
+				if (tail.compareAndSet(ticket, ticket + 1)) {
+					sites[index] = site;
+					threads[index] = Thread.currentThread().getId();
+					times[index] = System.currentTimeMillis();
+					sequences.lazySet(index, ticket + 1); // Publishes the record
+					return true;
+				}
+				ticket = tail.get();
+			} else if (sequence < ticket) {
+				dropped.incrementAndGet(); // The slot still holds the record of the previous round
+				return false;
+			} else {
+				ticket = tail.get(); // Another producer took the slot
+			}
+		}
+	}
+	
+	public void run() {
+		for (;;) {
+			int written;
+			synchronized (this) {
+				written = drain();
+			}
+			if (written == 0)
+				LockSupport.parkNanos(IDLE_NANOS);
+		}
+	}
+	
+	/** Writes the records in the buffer, and flushes the file if there were any; returns their number. Called with the lock held. */
+	private int drain() {
+		List<CheckSite> siteList = null;
+		int count = 0;
+		try {
+			for (;;) {
+				int index = (int)head & MASK;
+				if (sequences.get(index) != head + 1)
+					break;
+				if (siteList == null || sites[index] >= siteList.size())
+					siteList = CheckSiteCounters.getSitesById();
+				writer.write(times[index]+" "+threads[index]+" "+siteList.get(sites[index])+"\n");
+				sequences.lazySet(index, head + CAPACITY); // Frees the slot for the next round
+				head++;
+				count++;
+			}
+			long dropped = this.dropped.get();
+			if (dropped != droppedReported) {
+				writer.write("# dropped "+(dropped - droppedReported)+" violation records\n");
+				droppedReported = dropped;
+				count++;
+			}
+			if (count > 0)
+				writer.flush();
+		} catch (IOException e) {
+			System.err.println("notnullcheckweaver: cannot write the violation report: "+e);
+		}
+		return count;
+	}
+	
+	private synchronized void drainAndFlush() {
+		drain();
+	}
+}
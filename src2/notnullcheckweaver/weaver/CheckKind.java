@@ -0,0 +1,15 @@
+package notnullcheckweaver.weaver;
+
+/** The kinds of checks that the weaver inserts. */
+enum CheckKind {
+    /** A check of a not-null parameter, at method entry. */
+    ARGUMENT,
+    /** A check of the result of a not-null method, at each return. */
+    RESULT,
+    /** A check of the value read from a not-null field. */
+    FIELD_READ,
+    /** A check of the value stored in a not-null field. */
+    FIELD_WRITE,
+    /** A check, at the end of a constructor or static initializer, that the not-null fields have been initialized. */
+    CONSTRUCTOR
+}
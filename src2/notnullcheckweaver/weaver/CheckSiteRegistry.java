@@ -0,0 +1,52 @@
+package notnullcheckweaver.weaver;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Registers the check sites woven with <code>siteCounters=true</code> or <code>report=</code><i>file</i>
+ * with the runtime's <code>NotNullHelper</code>, which counts their executions or reports their violations.
+ *
+ * <p>The weaver is loaded by its own class loader and cannot link to the runtime classes,
+ * so the registration method is looked up in the system class loader, which loads the
+ * runtime jar given as the agent.</p>
+ */
+final class CheckSiteRegistry {
+    private CheckSiteRegistry() {}
+
+    private static Method registerMethod;
+
+    private static Class<?> getHelper() throws ClassNotFoundException {
+        return Class.forName("notnullcheckweaver.NotNullHelper", false, ClassLoader.getSystemClassLoader());
+    }
+
+    private static synchronized Method getRegisterMethod() throws ReflectiveOperationException {
+        if (registerMethod == null) {
+            Class<?> helper = getHelper();
+            registerMethod = helper.getMethod("registerCheckSite", String.class, String.class, String.class, String.class, String.class);
+        }
+        return registerMethod;
+    }
+
+    /** Starts the thread that writes the violations found by the checks of the report mode to the given file. */
+    static void startViolationReport(String path) {
+        try {
+            getHelper().getMethod("startViolationReport", String.class).invoke(null, path);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException("Cannot start the notnullcheckweaver violation report "+path, e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Returns the ID of a new check site, which the woven code passes to <code>NotNullHelper.countCheckSite</code>. */
+    static int register(String owner, String methodName, String methodDesc, CheckKind kind, String detail) {
+        try {
+            return (Integer)getRegisterMethod().invoke(null, owner, methodName, methodDesc, kind.name(), detail);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package notnullcheckweaver.weaver;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides which classes to weave, given a set of include and exclude prefixes of internal class names.
+ * If several prefixes match a name, the longest one wins.
+ *
+ * <p>The JVM offers every class it loads to the transformer, and most of them (JDK classes,
+ * library classes) are not ours. The prefixes are therefore compiled into a radix tree whose
+ * root children are indexed by their first character, so that such a name is usually rejected
+ * after an array load and one region comparison, without allocating.</p>
+ */
+final class ClassNameFilter {
+    private static final byte NO_MATCH = 0;
+    private static final byte INCLUDE = 1;
+    private static final byte EXCLUDE = 2;
+
+    private static final class Node {
+        /** The characters leading from the parent to this node; empty for the root. */
+        String edge = "";
+        /** The decision for names that have the path to this node as their longest matching prefix. */
+        byte decision = NO_MATCH;
+        /** The first characters of the children's edges; sorted. */
+        char[] firsts = new char[0];
+        Node[] children = new Node[0];
+
+        Node child(char c) {
+            char[] firsts = this.firsts;
+            for (int i = 0; i < firsts.length; i++)
+                if (firsts[i] == c)
+                    return children[i];
+            return null;
+        }
+
+        Node addChild(char c) {
+            Node child = child(c);
+            if (child != null)
+                return child;
+            int i = 0;
+            while (i < firsts.length && firsts[i] < c)
+                i++;
+            char[] newFirsts = Arrays.copyOf(firsts, firsts.length + 1);
+            Node[] newChildren = Arrays.copyOf(children, children.length + 1);
+            System.arraycopy(firsts, i, newFirsts, i + 1, firsts.length - i);
+            System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+            child = new Node();
+            child.edge = String.valueOf(c);
+            newFirsts[i] = c;
+            newChildren[i] = child;
+            firsts = newFirsts;
+            children = newChildren;
+            return child;
+        }
+
+        /** Merges chains of nodes that have a single child and no decision into one edge. */
+        void compress() {
+            for (int i = 0; i < children.length; i++) {
+                Node child = children[i];
+                while (child.decision == NO_MATCH && child.children.length == 1) {
+                    Node grandchild = child.children[0];
+                    grandchild.edge = child.edge + grandchild.edge;
+                    child = grandchild;
+                }
+                children[i] = child;
+                child.compress();
+            }
+        }
+    }
+
+    private final Node root = new Node();
+    /** The children of the root, indexed by the first (ASCII) character of their edge. */
+    private final Node[] rootChildren = new Node[128];
+
+    ClassNameFilter(List<String> includes, List<String> excludes) {
+        if (includes.isEmpty())
+            root.decision = INCLUDE;
+        for (String prefix : includes)
+            add(prefix, INCLUDE);
+        // An exclude overrides an include of the same prefix.
+        for (String prefix : excludes)
+            add(prefix, EXCLUDE);
+        root.compress();
+        for (int i = 0; i < root.firsts.length; i++)
+            if (root.firsts[i] < rootChildren.length)
+                rootChildren[root.firsts[i]] = root.children[i];
+    }
+
+    private void add(String prefix, byte decision) {
+        Node node = root;
+        for (int i = 0; i < prefix.length(); i++)
+            node = node.addChild(prefix.charAt(i));
+        node.decision = decision;
+    }
+
+    /**
+     * @param name an internal class name
+     */
+    boolean accepts(String name) {
+        byte decision = root.decision;
+        int n = name.length();
+        if (n == 0)
+            return decision == INCLUDE;
+        char c = name.charAt(0);
+        Node node = c < rootChildren.length ? rootChildren[c] : root.child(c);
+        int i = 0;
+        while (node != null && name.startsWith(node.edge, i)) {
+            i += node.edge.length();
+            if (node.decision != NO_MATCH)
+                decision = node.decision;
+            if (i == n)
+                break;
+            node = node.child(name.charAt(i));
+        }
+        return decision == INCLUDE;
+    }
+}
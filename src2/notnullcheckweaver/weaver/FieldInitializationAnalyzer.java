@@ -0,0 +1,177 @@
+package notnullcheckweaver.weaver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.Frame;
+import org.objectweb.asm.tree.analysis.SourceInterpreter;
+import org.objectweb.asm.tree.analysis.SourceValue;
+
+/**
+ * Finds the not-null instance fields that a constructor has definitely initialized at each of its returns, so that
+ * the check at the end of the constructor can leave them out: on every path to the return, the constructor stored
+ * the field of <code>this</code>, and the check of the store passed, with no call or monitor instruction since.
+ *
+ * <p>This is a forward must-analysis, like {@link RedundantFieldReadAnalyzer}, over the control flow found by ASM's
+ * analyzer, whose source interpreter also tells which stores go to <code>this</code> (loaded from local 0, which
+ * the constructor never overwrites). A store through another owner name (such as a subclass) is not checked, so it
+ * forgets the field. A call or a monitor instruction forgets all facts, because it may let code store null through
+ * reflection or through a class that is not woven, except those of the trusted fields: in invariant mode, the
+ * fields whose stores are all checked (see {@link InvariantFieldFinder}). An exception
+ * handler starts without facts, and constructors with subroutines are not analyzed.</p>
+ */
+final class FieldInitializationAnalyzer implements Opcodes {
+
+    private final MethodNode method;
+    private final String owner;
+    private final NotNullClassInspector inspector;
+    /** The facts of the trusted fields, which calls and monitor instructions keep. */
+    private final BitSet trusted = new BitSet();
+    private final AbstractInsnNode[] insns;
+    /** The control flow edges, other than those to exception handlers, by instruction. */
+    private final BitSet[] successors;
+    private Frame[] frames;
+    /** The facts that hold before each instruction; null for instructions not reached yet. */
+    private final BitSet[] in;
+
+    private FieldInitializationAnalyzer(MethodNode method, String owner, NotNullClassInspector inspector, Set<FieldInfo> trustedFields) {
+        this.method = method;
+        this.owner = owner;
+        this.inspector = inspector;
+        for (int i = 0; i < inspector.notNullInstanceFields.size(); i++)
+            if (trustedFields.contains(inspector.notNullInstanceFields.get(i)))
+                trusted.set(i);
+        this.insns = method.instructions.toArray();
+        this.successors = new BitSet[insns.length];
+        for (int i = 0; i < insns.length; i++)
+            successors[i] = new BitSet();
+        this.in = new BitSet[insns.length];
+    }
+
+    /**
+     * Returns the indexes, in the class's list of not-null instance fields, of the fields initialized at each
+     * <code>RETURN</code> instruction, in instruction order; null if the constructor cannot be analyzed.
+     */
+    static List<BitSet> analyze(MethodNode method, String owner, NotNullClassInspector inspector, Set<FieldInfo> trustedFields) {
+        FieldInitializationAnalyzer analyzer = new FieldInitializationAnalyzer(method, owner, inspector, trustedFields);
+        if (analyzer.insns.length == 0 || analyzer.hasSubroutinesOrStoresLocal0())
+            return null;
+        try {
+            analyzer.run();
+        } catch (AnalyzerException e) {
+            return null; // Leave the class to the verifier; check all fields
+        }
+        return analyzer.initializedFields();
+    }
+
+    private boolean hasSubroutinesOrStoresLocal0() {
+        for (AbstractInsnNode insn : insns) {
+            int opcode = insn.getOpcode();
+            if (opcode == JSR || opcode == RET)
+                return true;
+            if (opcode >= ISTORE && opcode <= ASTORE && ((VarInsnNode)insn).var == 0)
+                return true;
+            if (opcode == IINC && ((IincInsnNode)insn).var == 0)
+                return true;
+        }
+        return false;
+    }
+
+    /** Whether the receiver of the given store is <code>this</code>. */
+    @SuppressWarnings("unchecked") // The analysis API of ASM 4.0_RC2 uses raw sets
+    private boolean isOnThis(int index) {
+        Frame frame = frames[index];
+        SourceValue receiver = (SourceValue)frame.getStack(frame.getStackSize() - 2);
+        for (AbstractInsnNode source : (Iterable<AbstractInsnNode>)receiver.insns)
+            if (source.getOpcode() != ALOAD || ((VarInsnNode)source).var != 0)
+                return false;
+        return !receiver.insns.isEmpty();
+    }
+
+    @SuppressWarnings("unchecked") // The tree API of ASM 4.0_RC2 uses raw lists
+    private void run() throws AnalyzerException {
+        Analyzer analyzer = new Analyzer(new SourceInterpreter()) {
+            @Override
+            protected void newControlFlowEdge(int insn, int successor) {
+                successors[insn].set(successor);
+            }
+        };
+        frames = analyzer.analyze(owner, method);
+        ArrayDeque<Integer> worklist = new ArrayDeque<Integer>();
+        in[0] = new BitSet();
+        worklist.add(0);
+        for (TryCatchBlockNode block : (List<TryCatchBlockNode>)method.tryCatchBlocks) {
+            int handler = method.instructions.indexOf(block.handler);
+            in[handler] = new BitSet(); // Stays empty, whatever flows into it
+            worklist.add(handler);
+        }
+        while (!worklist.isEmpty()) {
+            int index = worklist.remove();
+            BitSet out = transfer(index, (BitSet)in[index].clone());
+            BitSet next = successors[index];
+            for (int successor = next.nextSetBit(0); successor >= 0; successor = next.nextSetBit(successor + 1))
+                merge(successor, out, worklist);
+        }
+    }
+
+    private void merge(int index, BitSet facts, ArrayDeque<Integer> worklist) {
+        BitSet old = in[index];
+        if (old == null) {
+            in[index] = (BitSet)facts.clone();
+            worklist.add(index);
+        } else {
+            int cardinality = old.cardinality();
+            old.and(facts);
+            if (old.cardinality() != cardinality)
+                worklist.add(index);
+        }
+    }
+
+    private BitSet transfer(int index, BitSet facts) {
+        AbstractInsnNode insn = insns[index];
+        switch (insn.getType()) {
+        case AbstractInsnNode.FIELD_INSN:
+            if (insn.getOpcode() != PUTFIELD)
+                break;
+            FieldInsnNode fieldInsn = (FieldInsnNode)insn;
+            int fact = inspector.notNullInstanceFields.indexOf(new FieldInfo(fieldInsn.name, fieldInsn.desc));
+            if (fact < 0)
+                break;
+            if (!fieldInsn.owner.equals(owner))
+                facts.clear(fact); // Not checked
+            else if (isOnThis(index))
+                facts.set(fact); // The check passed
+            // A checked store to another object's field leaves the fields of this alone.
+            break;
+        case AbstractInsnNode.METHOD_INSN:
+        case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+            facts.and(trusted);
+            break;
+        case AbstractInsnNode.INSN:
+            if (insn.getOpcode() == MONITORENTER || insn.getOpcode() == MONITOREXIT)
+                facts.and(trusted);
+            break;
+        }
+        return facts;
+    }
+
+    private List<BitSet> initializedFields() {
+        ArrayList<BitSet> result = new ArrayList<BitSet>();
+        for (int i = 0; i < insns.length; i++)
+            if (insns[i].getOpcode() == RETURN)
+                result.add(in[i] == null ? new BitSet() : in[i]);
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+package notnullcheckweaver.weaver;
+
+import java.util.HashMap;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Reports the methods whose code the checks made larger than a size limit of the HotSpot JIT compiler,
+ * so that the compiler no longer inlines them, or no longer compiles them at all.
+ *
+ * <p>The limits are those of the default flags: a method of up to <code>MaxInlineSize</code> bytes is
+ * inlined wherever it is called, one of up to <code>FreqInlineSize</code> bytes only at hot call sites,
+ * and one of more than 8000 bytes is not compiled (<code>DontCompileHugeMethods</code>). A small accessor
+ * that crosses the first limit may keep a whole chain of calls from being inlined; <code>emit=compact</code>
+ * adds the least code.</p>
+ */
+final class InliningThresholdReport {
+    private static final String[] LIMIT_NAMES = {"MaxInlineSize", "FreqInlineSize", "HugeMethodLimit"};
+    private static final int[] LIMITS = {35, 325, 8000};
+
+    private InliningThresholdReport() {}
+
+    /** Prints a line on the standard error stream for each method that crossed a limit by weaving. */
+    static void report(byte[] original, byte[] woven) {
+        ClassReader reader = new ClassReader(original);
+        HashMap<String, Integer> originalLengths = codeLengths(reader);
+        HashMap<String, Integer> wovenLengths = codeLengths(new ClassReader(woven));
+        for (String method : originalLengths.keySet()) {
+            Integer wovenLength = wovenLengths.get(method);
+            if (wovenLength == null)
+                continue;
+            int originalLength = originalLengths.get(method);
+            for (int i = 0; i < LIMITS.length; i++) {
+                if (originalLength <= LIMITS[i] && wovenLength > LIMITS[i]) {
+                    System.err.println("notnullcheckweaver: "+reader.getClassName().replace('/', '.')+"."+method+": checks grew the code from "
+                        +originalLength+" to "+wovenLength+" bytes, past "+LIMIT_NAMES[i]+" ("+LIMITS[i]+")");
+                    break;
+                }
+            }
+        }
+    }
+
+    /** Returns the code length of each method that has code, by name and descriptor. */
+    static HashMap<String, Integer> codeLengths(ClassReader reader) {
+        HashMap<String, Integer> lengths = new HashMap<String, Integer>();
+        char[] buffer = new char[reader.getMaxStringLength()];
+        int u = reader.header + 6; // access flags, this class, super class
+        u += 2 + 2 * reader.readUnsignedShort(u); // interfaces
+        int fieldCount = reader.readUnsignedShort(u);
+        u += 2;
+        for (int i = 0; i < fieldCount; i++) {
+            int attributeCount = reader.readUnsignedShort(u + 6); // after the access flags, name and descriptor
+            u += 8;
+            for (int j = 0; j < attributeCount; j++)
+                u += 6 + reader.readInt(u + 2);
+        }
+        int methodCount = reader.readUnsignedShort(u);
+        u += 2;
+        for (int i = 0; i < methodCount; i++) {
+            String name = reader.readUTF8(u + 2, buffer);
+            String desc = reader.readUTF8(u + 4, buffer);
+            int attributeCount = reader.readUnsignedShort(u + 6);
+            u += 8;
+            for (int j = 0; j < attributeCount; j++) {
+                if (reader.readUTF8(u, buffer).equals("Code"))
+                    lengths.put(name + desc, reader.readInt(u + 10)); // after the name, length, max stack and max locals
+                u += 6 + reader.readInt(u + 2);
+            }
+        }
+        return lengths;
+    }
+}
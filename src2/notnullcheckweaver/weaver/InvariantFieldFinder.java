@@ -0,0 +1,64 @@
+package notnullcheckweaver.weaver;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Finds the fields of a class whose stores are all checked, so that invariant mode can trust them to hold no
+ * null outside construction: the private fields that no unchecked method of the class stores. The weaver checks
+ * only the stores in the methods of the class itself, and not in its bridge, synthetic and tool-generated
+ * methods, such as the <code>access$</code> methods through which nested classes store private fields; a field
+ * that is not private can be stored by other classes, unchecked.
+ */
+final class InvariantFieldFinder extends ClassVisitor implements Opcodes {
+
+    private String owner;
+    private final HashSet<FieldInfo> privateFields = new HashSet<FieldInfo>();
+    private final HashSet<FieldInfo> uncheckedStores = new HashSet<FieldInfo>();
+
+    InvariantFieldFinder() {
+        super(Opcodes.ASM4);
+    }
+
+    /** Whether the weaver checks the given method of a class it checks; see {@link NotNullClassAdapter#visitMethod}. */
+    static boolean isCheckedMethod(int access, String name) {
+        return name.indexOf('$') < 0 && (access & (ACC_BRIDGE | ACC_SYNTHETIC)) == 0;
+    }
+
+    /** Returns the fields whose stores are all checked, once the class has been visited. */
+    Set<FieldInfo> getInvariantFields() {
+        HashSet<FieldInfo> result = new HashSet<FieldInfo>(privateFields);
+        result.removeAll(uncheckedStores);
+        return result;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+        owner = name;
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+        if ((access & ACC_PRIVATE) != 0)
+            privateFields.add(new FieldInfo(name, desc));
+        return null;
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        if (isCheckedMethod(access, name))
+            return null;
+        return new MethodVisitor(Opcodes.ASM4) {
+            @Override
+            public void visitFieldInsn(int opcode, String fieldOwner, String fieldName, String fieldDesc) {
+                if ((opcode == PUTFIELD || opcode == PUTSTATIC) && fieldOwner.equals(owner))
+                    uncheckedStores.add(new FieldInfo(fieldName, fieldDesc));
+            }
+        };
+    }
+}
@@ -2,6 +2,7 @@
 
 package notnullcheckweaver.weaver;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -9,18 +10,37 @@ import java.io.InputStream;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Method;
+import java.security.MessageDigest;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.JMException;
 
 import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.AnalyzerAdapter;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
 
 public final class NotNullCheckWeaver {
     private NotNullCheckWeaver() {}
@@ -33,18 +53,99 @@ public final class NotNullCheckWeaver {
     static final String nullableAnnotationClassName = weaverPackageName+"/Nullable";
     static final String nullableAnnotationDesc = classNameDesc(nullableAnnotationClassName);
     
-    public static void premain(String agentArgs, Instrumentation inst) {
-        final String classNamePrefix = agentArgs == null ? "" : agentArgs;
-        inst.addTransformer(new NotNullClassFileTransformer(classNamePrefix));
+    /** Null until the agent is started. */
+    private static WeaverControl control;
+    
+    public static synchronized void premain(String agentArgs, Instrumentation inst) {
+        start(WeaverOptions.parse(agentArgs), inst);
+    }
+    
+    /**
+     * Called when the agent is loaded into a running JVM. The first time, it starts the agent and
+     * weaves the loaded classes; after that, it only applies the <code>disable</code> and
+     * <code>enable</code> options, and ignores the others.
+     */
+    public static synchronized void agentmain(String agentArgs, Instrumentation inst) {
+        WeaverOptions options = WeaverOptions.parse(agentArgs);
+        if (control == null) {
+            start(options, inst);
+            control.retransform("");
+        } else {
+            control.apply(options, true);
+        }
+    }
+    
+    private static void start(WeaverOptions options, Instrumentation inst) {
+        if (options.closedWorld)
+            throw new IllegalArgumentException("The notnullcheckweaver option 'closedWorld' is supported by the offline weaver only");
+        if (options.reportFile != null)
+            CheckSiteRegistry.startViolationReport(options.reportFile);
+        NotNullClassFileTransformer transformer = new NotNullClassFileTransformer(options);
+        control = new WeaverControl(inst, transformer, options);
+        if (options.jmx) {
+            try {
+                transformer.statistics.register();
+                control.register();
+            } catch (JMException e) {
+                System.err.println("notnullcheckweaver: cannot register the MBeans: "+e);
+            }
+        }
+        // Without Can-Retransform-Classes in the manifest, the checks cannot be turned on again.
+        if (inst.isRetransformClassesSupported())
+            control.apply(options, false);
+        else if (!options.disables.isEmpty())
+            System.err.println("notnullcheckweaver: cannot turn checks off: the JVM does not support retransforming classes");
+        inst.addTransformer(transformer, inst.isRetransformClassesSupported());
     }
 }
 
 class NotNullClassFileTransformer implements ClassFileTransformer {
-    private final String classNamePrefix;
-    private HashMap<String, Boolean> packageNotNullMap = new HashMap<String, Boolean>();
+    final WeaverOptions options;
+    private final ClassNameFilter classNameFilter;
+    private final PackageNotNullCache packageNotNullCache = new PackageNotNullCache() {
+        @Override
+        PackageNotNullIndex loadIndex(ClassLoader loader) throws IOException {
+            return PackageNotNullIndex.load(loader);
+        }
+        
+        @Override
+        boolean resolve(ClassLoader loader, PackageNotNullIndex index, String packageName) throws IOException {
+            return resolvePackageNotNull(loader, index, packageName);
+        }
+    };
+    
+    /** Null if the cache is off or cannot be used. */
+    private final WovenClassCache cache;
+    final WeaverStatistics statistics;
+    /** Accepts the classes whose checks are turned off; null if none are. Set by {@link WeaverControl}. */
+    volatile ClassNameFilter disabledFilter;
     
-    NotNullClassFileTransformer(String classNamePrefix) {
-        this.classNamePrefix = classNamePrefix.replace('.', '/');
+    NotNullClassFileTransformer(WeaverOptions options) {
+        this.options = options;
+        this.classNameFilter = options.createClassNameFilter();
+        // The site IDs woven into the code are only valid in this JVM.
+        this.cache = options.cacheDirectory == null || options.registersSites() ? null : openCache(options);
+        this.statistics = new WeaverStatistics(cache);
+        if (cache != null && options.verbose) {
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    System.err.println("notnullcheckweaver: "+cache.getReport());
+                }
+            });
+        }
+    }
+    
+    private static WovenClassCache openCache(WeaverOptions options) {
+        try {
+            MessageDigest fingerprint = WovenClassCache.newSha1();
+            fingerprint.update(WovenClassCache.weaverDigest());
+            fingerprint.update(options.getCodeOptions().getBytes("UTF-8"));
+            return new WovenClassCache(new File(options.cacheDirectory), options.cacheSize, fingerprint.digest());
+        } catch (IOException e) {
+            System.err.println("notnullcheckweaver: not using cache "+options.cacheDirectory+": "+e);
+            return null;
+        }
     }
     
     static String getPackageName(String className) {
@@ -54,53 +155,174 @@ class NotNullClassFileTransformer implements ClassFileTransformer {
         return className.substring(0, slash);
     }
     
+    /**
+     * Resolves the nullness of a package through all its superpackages, whether or not the class name filter
+     * accepts them, so that a package inherits the nullness of an excluded superpackage.
+     */
     boolean isPackageNotNull(ClassLoader loader, String packageName) {
         if (packageName == null || loader == null)
             return false;
-        if (!packageName.startsWith(classNamePrefix))
-            return false;
-        Boolean packageNotNull = packageNotNullMap.get(packageName);
-        if (packageNotNull != null)
-            return packageNotNull;
+        return packageNotNullCache.get(loader, packageName);
+    }
+    
+    private boolean resolvePackageNotNull(ClassLoader loader, PackageNotNullIndex index, String packageName) throws IOException {
         boolean superpackageNotNull = isPackageNotNull(loader, getPackageName(packageName));
+        int state = index == null ? PackageNotNullIndex.UNKNOWN : index.get(packageName);
+        if (state != PackageNotNullIndex.UNKNOWN) {
+            statistics.packageIndexHits.increment();
+            return PackageNotNullIndex.resolve(state, superpackageNotNull);
+        }
+        statistics.packageInfoLookups.increment();
         InputStream is = loader.getResourceAsStream(packageName+"/package-info.class");
         if (is == null)
-            packageNotNull = superpackageNotNull;
-        else {
-            try {
-                ClassReader cr = new ClassReader(is);
-                PackageNotNullVisitor v = new PackageNotNullVisitor();
-                cr.accept(v, ClassReader.SKIP_DEBUG|ClassReader.SKIP_FRAMES|ClassReader.SKIP_CODE);
-                is.close();
-                packageNotNull = v.packageNotNull || superpackageNotNull && !v.packageNullable;
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            return superpackageNotNull;
+        try {
+            return resolvePackageNotNull(new ClassReader(is), superpackageNotNull);
+        } finally {
+            is.close();
+        }
+    }
+    
+    /** Returns the nullness of a package, given its package-info class and the nullness of its superpackage. */
+    static boolean resolvePackageNotNull(ClassReader packageInfo, boolean superpackageNotNull) {
+        PackageNotNullVisitor v = new PackageNotNullVisitor();
+        packageInfo.accept(v, ClassReader.SKIP_DEBUG|ClassReader.SKIP_FRAMES|ClassReader.SKIP_CODE);
+        return v.packageNotNull || superpackageNotNull && !v.packageNullable;
+    }
+    
+    /**
+     * Weaves the checks into the given class in a single parse of the class file.
+     * The class writer shares the reader's constant pool, so unchanged constants
+     * and methods are copied instead of being re-encoded.
+     */
+    static byte[] weave(byte[] classfileBuffer, boolean packageNotNull, WeaverOptions options) {
+        return weave(classfileBuffer, packageNotNull, options, (WeaverStatistics)null);
+    }
+    
+    /**
+     * @param statistics counts the checks inserted; may be null
+     */
+    static byte[] weave(byte[] classfileBuffer, boolean packageNotNull, WeaverOptions options, WeaverStatistics statistics) {
+        return weave(classfileBuffer, packageNotNull, options, statistics, true, true);
+    }
+    
+    /**
+     * @param checksEnabled false to leave out the checks while still adding the methods, so that
+     *        the class keeps the shape it has with checks, and the checks can be added back by retransforming it
+     * @param addsMethods false to add no methods, for a class that was loaded without them;
+     *        the checks at the end of construction are then woven into the constructors and static initializer
+     */
+    static byte[] weave(byte[] classfileBuffer, boolean packageNotNull, WeaverOptions options, WeaverStatistics statistics,
+            boolean checksEnabled, boolean addsMethods) {
+        return weave(classfileBuffer, packageNotNull, options, statistics, checksEnabled, addsMethods, null);
+    }
+    
+    /**
+     * @param uncheckedArguments the parameters whose checks are left out, by method name and descriptor, as found by
+     *        the offline weaver in all classes of the program; null to analyze the class alone if the options ask for it
+     */
+    static byte[] weave(byte[] classfileBuffer, boolean packageNotNull, WeaverOptions options, Map<String, BitSet> uncheckedArguments) {
+        return weave(classfileBuffer, packageNotNull, options, null, true, true, uncheckedArguments);
+    }
+    
+    private static byte[] weave(byte[] classfileBuffer, boolean packageNotNull, WeaverOptions options, WeaverStatistics statistics,
+            boolean checksEnabled, boolean addsMethods, Map<String, BitSet> uncheckedArguments) {
+        ClassReader reader = new ClassReader(classfileBuffer);
+        ClassWriter writer = new ClassWriter(reader, 0);
+        // Inlined checks need the stack map frames in expanded form to compute the frames of their failure paths.
+        int flags = options.emission == WeaverOptions.Emission.INLINE && checksEnabled ? ClassReader.EXPAND_FRAMES : 0;
+        NotNullClassAdapter adapter = new NotNullClassAdapter(writer, new NotNullClassInspector(packageNotNull), options);
+        adapter.checksEnabled = checksEnabled;
+        adapter.addsMethods = addsMethods;
+        adapter.policyChecks = options.getPolicyChecks(reader.getClassName());
+        if (uncheckedArguments != null) {
+            adapter.uncheckedArguments = uncheckedArguments;
+        } else if (options.elidePrivateArguments && checksEnabled && adapter.policyChecks == WeavingPolicy.ALL) {
+            // The calls of the private methods are analyzed before the first method is woven.
+            // The analysis relies on the result and field read checks of the class, so it needs all checks.
+            adapter.classNode = new ClassNode();
+            reader.accept(adapter.classNode, ClassReader.SKIP_DEBUG|ClassReader.SKIP_FRAMES);
         }
-        packageNotNullMap.put(packageName, packageNotNull);
-        return packageNotNull;
+        if (options.invariant && checksEnabled) {
+            // Invariant mode trusts only the fields that unchecked code cannot store, so they are found before any method is woven.
+            InvariantFieldFinder finder = new InvariantFieldFinder();
+            if (adapter.classNode != null)
+                adapter.classNode.accept(finder);
+            else
+                reader.accept(finder, ClassReader.SKIP_DEBUG|ClassReader.SKIP_FRAMES);
+            adapter.invariantFields = finder.getInvariantFields();
+        }
+        reader.accept(adapter, flags);
+        if (statistics != null)
+            statistics.addChecks(adapter.checkCounts);
+        byte[] result = writer.toByteArray();
+        if (options.verbose && checksEnabled)
+            InliningThresholdReport.report(classfileBuffer, result);
+        return result;
+    }
+    
+    private byte[] weaveCached(byte[] classfileBuffer, boolean packageNotNull) {
+        long start = System.nanoTime();
+        byte[] key = cache.key(classfileBuffer, packageNotNull);
+        byte[] result = cache.get(key);
+        if (result != null) {
+            cache.hitNanos.add(System.nanoTime() - start);
+            return result;
+        }
+        long weaveStart = System.nanoTime();
+        result = weave(classfileBuffer, packageNotNull, options, statistics);
+        cache.put(key, result, System.nanoTime() - weaveStart);
+        cache.missNanos.add(System.nanoTime() - start);
+        return result;
+    }
+
+    /** Whether the class was woven when it was loaded, and so has the methods that check the fields at the end of construction. */
+    static boolean hasAddedMethods(Class<?> loadedClass) {
+        try {
+            for (Method method : loadedClass.getDeclaredMethods())
+                if (method.getName().equals(NotNullClassAdapter.initCheckMethodName) || method.getName().equals(NotNullClassAdapter.clinitCheckMethodName))
+                    return true;
+        } catch (LinkageError e) {
+            // A class named in a method signature is missing; assume the class was not woven.
+        }
+        return false;
+    }
+    
+    /**
+     * Called only for names accepted by the class name filter, so that the common case
+     * of a class that is not ours is rejected by the filter alone.
+     */
+    static boolean isSkippedClass(String className) {
+        return className.endsWith("package-info") // Avoid loops
+            || className.indexOf("$$Lambda$") >= 0; // Lambda proxies; their code lives in the defining class
     }
     
     @Override
     public byte[] transform(ClassLoader loader, String className,
             Class<?> classBeingRedefined, ProtectionDomain protectionDomain,
             byte[] classfileBuffer) throws IllegalClassFormatException {
+        long start = System.nanoTime();
         try {
-            if (className.endsWith("package-info"))
-                return null; // Avoid loops
-            if (className.startsWith(classNamePrefix)) {
+            if (className == null)
+                return null; // VM-anonymous classes
+            statistics.classesInspected.increment();
+            if (classNameFilter.accepts(className) && !isSkippedClass(className)) {
                 boolean packageNotNull = isPackageNotNull(loader, getPackageName(className));
-                NotNullClassInspector inspector = new NotNullClassInspector(packageNotNull);
-                {
-                    ClassReader reader1 = new ClassReader(classfileBuffer);
-                    reader1.accept(inspector, ClassReader.SKIP_DEBUG|ClassReader.SKIP_FRAMES|ClassReader.SKIP_CODE);
+                ClassNameFilter disabledFilter = this.disabledFilter;
+                boolean checksEnabled = disabledFilter == null || !disabledFilter.accepts(className);
+                byte[] result;
+                if (classBeingRedefined != null || !checksEnabled) {
+                    // Retransformation may not add or remove methods, so keep those the class was loaded with.
+                    boolean addsMethods = classBeingRedefined == null || hasAddedMethods(classBeingRedefined);
+                    result = weave(classfileBuffer, packageNotNull, options, statistics, checksEnabled, addsMethods);
+                } else if (cache == null) {
+                    result = weave(classfileBuffer, packageNotNull, options, statistics);
+                } else {
+                    result = weaveCached(classfileBuffer, packageNotNull);
                 }
-                
-                ClassReader reader2 = new ClassReader(classfileBuffer);
-                ClassWriter writer = new ClassWriter(0);
-                ClassVisitor adapter = new NotNullClassAdapter(writer, inspector);
-                reader2.accept(adapter, 0);
-                byte[] result = writer.toByteArray();
+                statistics.classesWoven.increment();
+                statistics.bytesIn.add(classfileBuffer.length);
+                statistics.bytesOut.add(result.length);
                 /*
                 try {
                     FileOutputStream fos = new FileOutputStream(className.replace('/', '_') + ".class");
@@ -114,6 +336,7 @@ class NotNullClassFileTransformer implements ClassFileTransformer {
                 */
                 return result;
             }
+            statistics.classesRejected.increment();
             return null;
             
         // The JVM silently drops exceptions thrown by this method.
@@ -123,6 +346,8 @@ class NotNullClassFileTransformer implements ClassFileTransformer {
         } catch (Error e) {
             e.printStackTrace();
             throw e;
+        } finally {
+            statistics.addTransformNanos(System.nanoTime() - start);
         }
     }
 }
@@ -167,6 +392,7 @@ class FieldInfo {
 
 class NotNullClassInspector extends ClassVisitor implements Opcodes {
     String owner;
+    int version;
     boolean isInterface;
     boolean packageNotNull;
     boolean classNotNull;
@@ -194,6 +420,7 @@ class NotNullClassInspector extends ClassVisitor implements Opcodes {
         final String[] interfaces)
     {
         owner = name;
+        this.version = version;
         isInterface = (access & ACC_INTERFACE) != 0;
         super.visit(version, access, name, signature, superName, interfaces);
     }
@@ -252,10 +479,132 @@ class NotNullClassAdapter extends ClassVisitor implements Opcodes {
     static final String clinitCheckMethodName = "$checkNotNullStaticFieldsInitialized";
     
     NotNullClassInspector inspector;
+    final WeaverOptions options;
+    /** The number of field read checks left out, because they were redundant or by invariant mode. */
+    int elidedReadChecks;
+    /** The number of argument checks left out, because the callers pass values known not to be null. */
+    int elidedArgumentChecks;
+    /** The class, read ahead to analyze the calls of its private methods; null if they are not analyzed. */
+    ClassNode classNode;
+    /** The parameters whose checks are left out, by method name and descriptor; null until found, if they are looked for. */
+    Map<String, BitSet> uncheckedArguments;
+    /** The bridge and synthetic methods, woven at the end of the class, when the methods they forward to are known. */
+    private final ArrayList<MethodNode> forwarders = new ArrayList<MethodNode>();
+    private boolean weavingForwarders;
+    /** The methods woven with checks, by name and descriptor. */
+    private final HashSet<String> checkedMethods = new HashSet<String>();
+    /** The number of checks inserted, indexed by check kind. */
+    final int[] checkCounts = new int[CheckKind.values().length];
+    /** False to weave only the methods that the checks call; see {@link NotNullClassFileTransformer#weave(byte[], boolean, WeaverOptions, WeaverStatistics, boolean, boolean)}. */
+    boolean checksEnabled = true;
+    boolean addsMethods = true;
+    /** The kinds of checks that the weaving policy selects for the class; see {@link WeavingPolicy}. */
+    int policyChecks = WeavingPolicy.ALL;
+    /** The fields whose stores are all checked, as found by {@link InvariantFieldFinder}; null unless in invariant mode. */
+    Set<FieldInfo> invariantFields;
 
-    public NotNullClassAdapter(final ClassVisitor writer, NotNullClassInspector inspector) {
+    public NotNullClassAdapter(final ClassVisitor writer, NotNullClassInspector inspector, WeaverOptions options) {
         super(Opcodes.ASM4, writer);
         this.inspector = inspector;
+        this.options = options;
+    }
+
+    void countCheck(CheckKind kind) {
+        checkCounts[kind.ordinal()]++;
+    }
+
+    /** Whether the policy selects all of the given kinds of checks for the class. */
+    boolean isChecking(int kinds) {
+        return (policyChecks & kinds) == kinds;
+    }
+
+    /**
+     * Whether the not-null fields are known to hold no null outside construction, as in invariant mode, which
+     * relies on the checks of the stores and at the end of construction, and so on those checks throwing.
+     */
+    boolean keepsInvariant() {
+        return options.invariant && failedChecksThrow() && isChecking(WeavingPolicy.FIELD_WRITES | WeavingPolicy.CONSTRUCTORS | WeavingPolicy.STATIC_INITIALIZERS);
+    }
+
+    /** Whether the given field is known to hold no null outside construction; only a field whose stores are all checked is. */
+    boolean isInvariantField(String name, String desc) {
+        return keepsInvariant() && invariantFields != null && invariantFields.contains(new FieldInfo(name, desc));
+    }
+
+    /** The fields that the analyses may trust to hold no null outside construction; empty unless the class keeps the invariant. */
+    Set<FieldInfo> trustedFields() {
+        return keepsInvariant() && invariantFields != null ? invariantFields : Collections.<FieldInfo>emptySet();
+    }
+
+    boolean isInliningChecks() {
+        return options.emission == WeaverOptions.Emission.INLINE;
+    }
+
+    /** Class files older than Java 7 cannot contain invokedynamic instructions; their checks are emitted as helper calls. */
+    boolean isUsingIndy() {
+        return options.emission == WeaverOptions.Emission.INDY && (inspector.version & 0xFFFF) >= V1_7;
+    }
+
+    /**
+     * Whether a failed check always throws, so that a not-null field holds no null after a store to it.
+     * Not so in report mode, nor for <code>invokedynamic</code> sites, whose policy may change.
+     */
+    boolean failedChecksThrow() {
+        return options.reportFile == null && !isUsingIndy();
+    }
+
+    /** Class files older than Java 6 have no stack map frames. */
+    boolean hasFrames() {
+        return (inspector.version & 0xFFFF) >= V1_6;
+    }
+
+    // The class reader visits the class annotations and the fields before the methods,
+    // so the inspector is complete by the time the first method is woven.
+
+    @Override
+    public void visit(
+        final int version,
+        final int access,
+        final String name,
+        final String signature,
+        final String superName,
+        final String[] interfaces)
+    {
+        inspector.visit(version, access, name, signature, superName, interfaces);
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+        inspector.visitAnnotation(desc, visible);
+        return super.visitAnnotation(desc, visible);
+    }
+
+    @Override
+    public FieldVisitor visitField(
+        final int access,
+        final String name,
+        final String desc,
+        final String signature,
+        final Object value)
+    {
+        final FieldVisitor inspectorVisitor = inspector.visitField(access, name, desc, signature, value);
+        FieldVisitor fv = super.visitField(access, name, desc, signature, value);
+        if (inspectorVisitor == null)
+            return fv;
+        return new FieldVisitor(Opcodes.ASM4, fv) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+                inspectorVisitor.visitAnnotation(desc, visible);
+                return super.visitAnnotation(desc, visible);
+            }
+
+            @Override
+            public void visitEnd() {
+                inspectorVisitor.visitEnd();
+                super.visitEnd();
+            }
+        };
     }
 
     @Override
@@ -267,23 +616,123 @@ class NotNullClassAdapter extends ClassVisitor implements Opcodes {
         final String[] exceptions)
     {
         // Skip tool-generated methods (such as those generated by cofoja)
-        if (0 <= name.indexOf('$')) return super.visitMethod(access, name, desc, signature, exceptions);
+        if (0 <= name.indexOf('$') || !checksEnabled) return super.visitMethod(access, name, desc, signature, exceptions);
+        if ((access & (ACC_BRIDGE | ACC_SYNTHETIC)) != 0 && !weavingForwarders) {
+            MethodNode forwarder = new MethodNode(Opcodes.ASM4, access, name, desc, signature, exceptions);
+            forwarders.add(forwarder);
+            return forwarder;
+        }
+        checkedMethods.add(name + desc);
         MethodVisitor mv = cv.visitMethod(access,
                 name,
                 desc,
                 signature,
                 exceptions);
-        return new NotNullCodeAdapter(mv, inspector.owner, (access & ACC_STATIC) != 0, name, desc, this);
+        AnalyzerAdapter analyzer = null;
+        if (isInliningChecks() && hasFrames())
+            mv = analyzer = new AnalyzerAdapter(inspector.owner, access, name, desc, mv);
+        final NotNullCodeAdapter codeAdapter = new NotNullCodeAdapter(mv, inspector.owner, (access & ACC_STATIC) != 0, name, desc, this, analyzer);
+        if (classNode != null && uncheckedArguments == null)
+            uncheckedArguments = failedChecksThrow() ? PrivateArgumentAnalyzer.analyze(classNode, inspector, options.invariant ? trustedFields() : null) : new HashMap<String, BitSet>();
+        if (uncheckedArguments != null)
+            codeAdapter.uncheckedArguments = uncheckedArguments.get(name + desc);
+        final boolean analyzesInitialization = name.equals("<init>") && !inspector.notNullInstanceFields.isEmpty() && failedChecksThrow()
+            && isChecking(WeavingPolicy.FIELD_WRITES | WeavingPolicy.CONSTRUCTORS);
+        // A read check that does not throw, or a store check whose policy may change, proves nothing about later reads
+        final boolean analyzesReads = options.elideRedundantReads && failedChecksThrow();
+        if (!analyzesReads && !options.lightExceptions && !analyzesInitialization)
+            return codeAdapter;
+        // Buffer the method, so that its reads and field initializations can be analyzed, and its parameter
+        // names found in the local variable table, before it is woven.
+        return new MethodNode(Opcodes.ASM4, access, name, desc, signature, exceptions) {
+            @Override
+            public void visitEnd() {
+                if (analyzesReads)
+                    codeAdapter.redundantReads = RedundantFieldReadAnalyzer.analyze(this, inspector.owner, inspector, isChecking(WeavingPolicy.FIELD_WRITES));
+                if (analyzesInitialization)
+                    codeAdapter.initializedFields = FieldInitializationAnalyzer.analyze(this, inspector.owner, inspector, trustedFields());
+                if (options.lightExceptions)
+                    codeAdapter.parameterNames = parameterNames(this);
+                accept(codeAdapter);
+            }
+        };
+    }
+    
+    /** Returns the names of the parameters, from the entries of the local variable table that start at the method entry; null where unknown. */
+    @SuppressWarnings("unchecked") // The tree API of ASM 4.0_RC2 uses raw lists
+    static String[] parameterNames(MethodNode method) {
+        Type[] argTypes = Type.getArgumentTypes(method.desc);
+        String[] names = new String[argTypes.length];
+        if (method.localVariables == null)
+            return names;
+        for (LocalVariableNode variable : (List<LocalVariableNode>)method.localVariables) {
+            if (!startsAtEntry(variable.start))
+                continue;
+            int slot = (method.access & ACC_STATIC) != 0 ? 0 : 1;
+            for (int i = 0; i < argTypes.length; i++) {
+                if (slot == variable.index)
+                    names[i] = variable.name;
+                slot += argTypes[i].getSize();
+            }
+        }
+        return names;
+    }
+    
+    private static boolean startsAtEntry(LabelNode label) {
+        for (AbstractInsnNode insn = label.getPrevious(); insn != null; insn = insn.getPrevious())
+            if (insn.getOpcode() >= 0)
+                return false;
+        return true;
+    }
+    
+    /**
+     * Returns the name and descriptor of the method of this class that the given method only forwards to, passing it
+     * its parameters, possibly cast, and returning its result, as a bridge method does; null if it does more than that.
+     */
+    private String forwardingTarget(MethodNode method) {
+        String target = null;
+        boolean returned = false;
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            int opcode = insn.getOpcode();
+            if (opcode < 0)
+                continue; // A label, line number or frame
+            if (returned)
+                return null;
+            if (opcode == CHECKCAST || target == null && opcode >= ILOAD && opcode <= ALOAD)
+                continue;
+            if (target == null && insn instanceof MethodInsnNode && ((MethodInsnNode)insn).owner.equals(inspector.owner))
+                target = ((MethodInsnNode)insn).name + ((MethodInsnNode)insn).desc;
+            else if (target != null && opcode >= IRETURN && opcode <= RETURN)
+                returned = true;
+            else
+                return null;
+        }
+        return returned && !target.equals(method.name + method.desc) ? target : null;
     }
     
     @Override
     public void visitEnd() {
-        if (inspector.notNullInstanceFields.size() > 0)
+        // A forwarder is left unchecked if its target checks the same values; otherwise, it is woven as usual.
+        weavingForwarders = true;
+        for (MethodNode forwarder : forwarders) {
+            String target = forwardingTarget(forwarder);
+            if (target != null && checkedMethods.contains(target))
+                forwarder.accept(cv);
+            else
+                forwarder.accept(this);
+        }
+        if (inspector.notNullInstanceFields.size() > 0 && addsMethods)
             generateInstanceFieldsInitializationCheckMethod();
         if (inspector.notNullStaticFields.size() > 0) {
-            if (!inspector.isInterface)
+            if (!inspector.isInterface && addsMethods)
                 generateStaticFieldsInitializationCheckMethod();
         }
+        if (options.verbose && (options.elideRedundantReads || options.invariant))
+            System.err.println("notnullcheckweaver: "+inspector.owner.replace('/', '.')+": left out "+elidedReadChecks+" field read checks");
+        if (options.verbose && options.closedWorld)
+            System.err.println("notnullcheckweaver: "+inspector.owner.replace('/', '.')+": left out "+elidedArgumentChecks+" argument checks");
+        else if (options.verbose && options.elidePrivateArguments)
+            System.err.println("notnullcheckweaver: "+inspector.owner.replace('/', '.')+": left out "+elidedArgumentChecks+" argument checks of private methods");
         
         super.visitEnd();
     }
@@ -291,20 +740,79 @@ class NotNullClassAdapter extends ClassVisitor implements Opcodes {
     private void generateInstanceFieldsInitializationCheckMethod() {
         MethodVisitor mv = cv.visitMethod(ACC_PRIVATE, initCheckMethodName, "()V", null, null);
         mv.visitCode();
-        for (FieldInfo field : inspector.notNullInstanceFields) {
+        if (isInliningChecks()) {
+            generateInlinedInstanceFieldsInitializationChecks(mv);
+            return;
+        }
+        generateInstanceFieldsInitializedChecks(mv, inspector, options, null);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(2, 1); // Two operands of size 1; one local (the receiver)
+        mv.visitEnd();
+    }
+    
+    private void generateInlinedInstanceFieldsInitializationChecks(MethodVisitor mv) {
+        Object[] locals = {inspector.owner};
+        if (hasFrames())
+            mv.visitFrame(F_NEW, 1, locals, 0, new Object[0]); // The implicit first frame; not written
+        Label[] failures = new Label[inspector.notNullInstanceFields.size()];
+        for (int i = 0; i < failures.length; i++) {
+            FieldInfo field = inspector.notNullInstanceFields.get(i);
+            failures[i] = new Label();
             mv.visitVarInsn(ALOAD, 0); // this
-            mv.visitFieldInsn(GETFIELD, inspector.owner, field.name, field.desc); // read the field
-            mv.visitLdcInsn(field.name); // load string constant
-            mv.visitMethodInsn(INVOKESTATIC, NotNullCodeAdapter.checkNotNullClass, "checkConstructorFieldNotNull", "(Ljava/lang/Object;Ljava/lang/String;)V");
+            mv.visitFieldInsn(GETFIELD, inspector.owner, field.name, field.desc);
+            mv.visitJumpInsn(IFNULL, failures[i]);
         }
         mv.visitInsn(RETURN);
+        for (int i = 0; i < failures.length; i++) {
+            mv.visitLabel(failures[i]);
+            if (hasFrames())
+                mv.visitFrame(F_NEW, 1, locals, 0, new Object[0]);
+            String fieldName = inspector.notNullInstanceFields.get(i).name;
+            if (options.lightExceptions) {
+                mv.visitLdcInsn(NotNullCodeAdapter.siteName(inspector.owner, "<init>", "()V", CheckKind.CONSTRUCTOR, fieldName));
+                mv.visitMethodInsn(INVOKESTATIC, NotNullCodeAdapter.checkNotNullClass, "newNotNullCheckException", "(Ljava/lang/String;)"+NotNullCodeAdapter.exceptionDesc);
+            } else {
+                mv.visitLdcInsn(fieldName);
+                mv.visitMethodInsn(INVOKESTATIC, NotNullCodeAdapter.checkNotNullClass, "newConstructorFieldNotNullCheckException", "(Ljava/lang/String;)"+NotNullCodeAdapter.exceptionDesc);
+            }
+            mv.visitInsn(ATHROW);
+        }
         mv.visitMaxs(2, 1); // Two operands of size 1; one local (the receiver)
         mv.visitEnd();
     }
     
-    static void generateStaticFieldsInitializedChecks(MethodVisitor mv, NotNullClassInspector inspector) {
+    /** Checks the not-null instance fields, except those known to be initialized, if any are. */
+    static void generateInstanceFieldsInitializedChecks(MethodVisitor mv, NotNullClassInspector inspector, WeaverOptions options, BitSet initialized) {
+        for (int i = 0; i < inspector.notNullInstanceFields.size(); i++) {
+            if (initialized != null && initialized.get(i))
+                continue;
+            FieldInfo field = inspector.notNullInstanceFields.get(i);
+            mv.visitVarInsn(ALOAD, 0); // this
+            mv.visitFieldInsn(GETFIELD, inspector.owner, field.name, field.desc); // read the field
+            if (options.reportFile != null) {
+                NotNullCodeAdapter.emitReportIfNull(mv, CheckSiteRegistry.register(inspector.owner, "<init>", "()V", CheckKind.CONSTRUCTOR, field.name));
+                continue;
+            }
+            if (options.lightExceptions) {
+                NotNullCodeAdapter.emitCheckNotNull(mv, NotNullCodeAdapter.siteName(inspector.owner, "<init>", "()V", CheckKind.CONSTRUCTOR, field.name));
+                continue;
+            }
+            mv.visitLdcInsn(field.name); // load string constant
+            mv.visitMethodInsn(INVOKESTATIC, NotNullCodeAdapter.checkNotNullClass, "checkConstructorFieldNotNull", "(Ljava/lang/Object;Ljava/lang/String;)V");
+        }
+    }
+    
+    static void generateStaticFieldsInitializedChecks(MethodVisitor mv, NotNullClassInspector inspector, WeaverOptions options) {
         for (FieldInfo field : inspector.notNullStaticFields) {
             mv.visitFieldInsn(GETSTATIC, inspector.owner, field.name, field.desc);
+            if (options.reportFile != null) {
+                NotNullCodeAdapter.emitReportIfNull(mv, CheckSiteRegistry.register(inspector.owner, "<clinit>", "()V", CheckKind.CONSTRUCTOR, field.name));
+                continue;
+            }
+            if (options.lightExceptions) {
+                NotNullCodeAdapter.emitCheckNotNull(mv, NotNullCodeAdapter.siteName(inspector.owner, "<clinit>", "()V", CheckKind.CONSTRUCTOR, field.name));
+                continue;
+            }
             mv.visitLdcInsn(field.name);
             mv.visitMethodInsn(INVOKESTATIC, NotNullCodeAdapter.checkNotNullClass, "checkStaticInitializerFieldNotNull", "(Ljava/lang/Object;Ljava/lang/String;)V");
         }
@@ -313,7 +821,7 @@ class NotNullClassAdapter extends ClassVisitor implements Opcodes {
     private void generateStaticFieldsInitializationCheckMethod() {
         MethodVisitor mv = cv.visitMethod(ACC_PRIVATE | ACC_STATIC, clinitCheckMethodName, "()V", null, null);
         mv.visitCode();
-        generateStaticFieldsInitializedChecks(mv, inspector);
+        generateStaticFieldsInitializedChecks(mv, inspector, options);
         mv.visitInsn(RETURN);
         mv.visitMaxs(2, 1); // Two operands of size 1; one local (the receiver)
         mv.visitEnd();
@@ -323,9 +831,56 @@ class NotNullClassAdapter extends ClassVisitor implements Opcodes {
 class NotNullCodeAdapter extends MethodVisitor implements Opcodes {
 
     static final String checkNotNullClass = "notnullcheckweaver/NotNullHelper";
+    static final String exceptionDesc = NotNullCheckWeaver.classNameDesc(NotNullCheckWeaver.weaverPackageName+"/NotNullCheckException");
+    static final Handle bootstrapCheck = new Handle(H_INVOKESTATIC, checkNotNullClass, "bootstrapCheck",
+        "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;"
+        +"Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)Ljava/lang/invoke/CallSite;");
+    
+    private static class TryCatchBlock {
+        final Label start;
+        final Label end;
+        final Label handler;
+        final String type;
+        
+        TryCatchBlock(Label start, Label end, Label handler, String type) {
+            this.start = start;
+            this.end = end;
+            this.handler = handler;
+            this.type = type;
+        }
+    }
+    
+    /**
+     * The out-of-line code that throws the exception for a failed inlined check.
+     * It is emitted after the method's own code, so that the check itself is a single
+     * compare-and-branch on the hot path. It is protected by the exception handlers
+     * that protect the check.
+     */
+    private static class FailurePath {
+        final Label label = new Label();
+        final Label end = new Label();
+        final Object[] locals;
+        final Object[] stack;
+        final List<TryCatchBlock> handlers;
+        final int line;
+        final String method;
+        final String desc;
+        final Object argument;
+        
+        FailurePath(Object[] locals, Object[] stack, List<TryCatchBlock> handlers, int line, String method, String desc, Object argument) {
+            this.locals = locals;
+            this.stack = stack;
+            this.handlers = handlers;
+            this.line = line;
+            this.method = method;
+            this.desc = desc;
+            this.argument = argument;
+        }
+    }
     
     private String owner;
     private String name;
+    private String desc;
     private Type[] argTypes;
     private boolean isStatic;
     private NotNullClassAdapter classAdapter;
@@ -333,6 +888,35 @@ class NotNullCodeAdapter extends MethodVisitor implements Opcodes {
     private boolean resultNullable;
     private boolean[] paramsNotNull;
     private boolean[] paramsNullable;
+    /** Tracks the frame when checks are inlined in a class file with stack map frames; null otherwise. */
+    private final AnalyzerAdapter analyzer;
+    private final ArrayList<FailurePath> failurePaths = new ArrayList<FailurePath>();
+    private final ArrayList<TryCatchBlock> tryCatchBlocks = new ArrayList<TryCatchBlock>();
+    private final HashSet<Label> visitedLabels = new HashSet<Label>();
+    private int line;
+    private boolean implicitFrameVisited;
+    /** The checked field reads to leave out, numbered in order; null if none are. */
+    BitSet redundantReads;
+    private int checkedReads;
+    /** The parameters whose checks are left out, because all callers pass not-null values; null if none are. */
+    BitSet uncheckedArguments;
+    /** The operand stack used by the coalesced argument checks at the method entry. */
+    private int maxEntryStack;
+    /** The parameter names, where known, for the messages of the lightweight exceptions; null if not looked up. */
+    String[] parameterNames;
+    /** The not-null instance fields initialized at each return of the constructor, in order; null if not analyzed. */
+    List<BitSet> initializedFields;
+    private int returns;
+    /** The number of objects created by the constructor whose own constructor has not been called yet. */
+    private int uninitializedNews;
+    /** Whether the constructor has called the superclass constructor or another constructor of its class. */
+    private boolean thisInitialized;
+    /**
+     * Whether the constructor delegates to another constructor of its class, through <code>this(...)</code>.
+     * That constructor has already checked that the not-null fields were initialized, and the stores since then
+     * have been checked, so the check at the end of this constructor is left out.
+     */
+    private boolean delegatesToThis;
     
     boolean isParameterNotNull(int index) {
         return paramsNotNull[index] || classAdapter.inspector.isClassNotNull() && !paramsNullable[index];
@@ -342,17 +926,147 @@ class NotNullCodeAdapter extends MethodVisitor implements Opcodes {
         return resultNotNull || classAdapter.inspector.isClassNotNull() && !resultNullable;
     }
 
-    public NotNullCodeAdapter(final MethodVisitor mv, final String owner, boolean isStatic, String name, String desc, NotNullClassAdapter classAdapter) {
+    public NotNullCodeAdapter(final MethodVisitor mv, final String owner, boolean isStatic, String name, String desc, NotNullClassAdapter classAdapter, AnalyzerAdapter analyzer) {
         super(Opcodes.ASM4, mv);
         this.owner = owner;
         this.name = name;
+        this.desc = desc;
         this.isStatic = isStatic;
         this.classAdapter = classAdapter;
+        this.analyzer = analyzer;
         argTypes = Type.getArgumentTypes(desc);
         paramsNotNull = new boolean[argTypes.length];
         paramsNullable = new boolean[argTypes.length];
     }
     
+    /** False in unreachable code, whose frame is unknown. */
+    private boolean canInlineCheck() {
+        return classAdapter.isInliningChecks() && (analyzer == null || analyzer.locals != null);
+    }
+    
+    /** Converts the analyzer's slots to frame types, where long and double values take a single element. */
+    private static Object[] frameTypes(List<Object> slots) {
+        ArrayList<Object> types = new ArrayList<Object>(slots.size());
+        for (int i = 0; i < slots.size(); i++) {
+            Object type = slots.get(i);
+            types.add(type);
+            if (type.equals(LONG) || type.equals(DOUBLE))
+                i++;
+        }
+        return types.toArray();
+    }
+    
+    /** Returns the try-catch blocks whose range contains the current instruction, in order. */
+    private List<TryCatchBlock> getActiveTryCatchBlocks() {
+        ArrayList<TryCatchBlock> active = new ArrayList<TryCatchBlock>();
+        for (TryCatchBlock block : tryCatchBlocks)
+            if (visitedLabels.contains(block.start) && !visitedLabels.contains(block.end))
+                active.add(block);
+        return active;
+    }
+    
+    /** Records a failure path for a check whose branch is about to be emitted at the current frame. */
+    private Label addFailurePath(String method, String desc, Object argument) {
+        Object[] locals = analyzer == null ? null : frameTypes(analyzer.locals);
+        Object[] stack = analyzer == null ? null : frameTypes(analyzer.stack);
+        FailurePath failurePath = new FailurePath(locals, stack, getActiveTryCatchBlocks(), line, method, desc, argument);
+        failurePaths.add(failurePath);
+        return failurePath.label;
+    }
+    
+    private void emitFailurePaths() {
+        for (FailurePath failurePath : failurePaths) {
+            for (TryCatchBlock block : failurePath.handlers)
+                mv.visitTryCatchBlock(failurePath.label, failurePath.end, block.handler, block.type);
+            mv.visitLabel(failurePath.label);
+            if (analyzer != null)
+                mv.visitFrame(F_NEW, failurePath.locals.length, failurePath.locals, failurePath.stack.length, failurePath.stack);
+            if (failurePath.line > 0)
+                mv.visitLineNumber(failurePath.line, failurePath.label);
+            if (failurePath.argument != null)
+                mv.visitLdcInsn(failurePath.argument);
+            mv.visitMethodInsn(INVOKESTATIC, checkNotNullClass, failurePath.method, failurePath.desc);
+            mv.visitInsn(ATHROW);
+            mv.visitLabel(failurePath.end);
+        }
+        failurePaths.clear();
+    }
+    
+    /** Counts a read of the given not-null field, and returns whether it needs a check. */
+    private boolean isReadCheckNeeded(String fieldName, String fieldDesc) {
+        int read = checkedReads++;
+        if (!classAdapter.isChecking(WeavingPolicy.FIELD_READS))
+            return false;
+        boolean needed = (redundantReads == null || !redundantReads.get(read))
+            && (!classAdapter.isInvariantField(fieldName, fieldDesc) || name.equals("<init>") || name.equals("<clinit>"));
+        if (!needed)
+            classAdapter.elidedReadChecks++;
+        return needed;
+    }
+    
+    /**
+     * Counts a check about to be emitted; with per-site counters, also emits the code that counts its executions.
+     * The detail is the argument index or the field name, if any.
+     */
+    private void countCheck(CheckKind kind, String detail) {
+        classAdapter.countCheck(kind);
+        if (classAdapter.options.siteCounters) {
+            mv.visitLdcInsn(CheckSiteRegistry.register(owner, name, desc, kind, detail));
+            mv.visitMethodInsn(INVOKESTATIC, checkNotNullClass, "countCheckSite", "(I)V");
+        }
+    }
+    
+    /** Emits the check of the report mode, which consumes the value on top of the operand stack. */
+    static void emitReportIfNull(MethodVisitor mv, int site) {
+        mv.visitLdcInsn(site);
+        mv.visitMethodInsn(INVOKESTATIC, checkNotNullClass, "reportIfNull", "(Ljava/lang/Object;I)V");
+    }
+    
+    /** Names a check for the lightweight exceptions, in the form that <code>NotNullHelper.newNotNullCheckException</code> parses. */
+    static String siteName(String owner, String name, String desc, CheckKind kind, String detail) {
+        return owner.replace('/', '.')+"."+name+desc+" "+kind+(detail == null ? "" : " "+detail);
+    }
+    
+    /** Emits the check of the lightweight exceptions, which consumes the value on top of the operand stack. */
+    static void emitCheckNotNull(MethodVisitor mv, String site) {
+        mv.visitLdcInsn(site);
+        mv.visitMethodInsn(INVOKESTATIC, checkNotNullClass, "checkNotNull", "(Ljava/lang/Object;Ljava/lang/String;)V");
+    }
+    
+    /** Emits an invokedynamic check site that consumes the value on top of the operand stack. */
+    private void emitIndyCheck(CheckKind kind, String detail) {
+        mv.visitInvokeDynamicInsn("check", "(Ljava/lang/Object;)V", bootstrapCheck, name, desc, kind.name(), detail == null ? "" : detail);
+    }
+    
+    /** Checks the value on top of the operand stack, leaving it there. */
+    private void checkTopOfStack(CheckKind kind, String detail, String checkMethod, String failureMethod) {
+        countCheck(kind, detail);
+        if (classAdapter.options.reportFile != null) {
+            mv.visitInsn(DUP);
+            emitReportIfNull(mv, CheckSiteRegistry.register(owner, name, desc, kind, detail));
+        } else if (classAdapter.isUsingIndy()) {
+            mv.visitInsn(DUP);
+            emitIndyCheck(kind, detail);
+        } else if (classAdapter.options.lightExceptions) {
+            String site = siteName(owner, name, desc, kind, detail);
+            if (canInlineCheck()) {
+                Label failure = addFailurePath("newNotNullCheckException", "(Ljava/lang/String;)"+exceptionDesc, site);
+                mv.visitInsn(DUP);
+                mv.visitJumpInsn(IFNULL, failure);
+            } else {
+                mv.visitInsn(DUP);
+                emitCheckNotNull(mv, site);
+            }
+        } else if (canInlineCheck()) {
+            Label failure = addFailurePath(failureMethod, "()"+exceptionDesc, null);
+            mv.visitInsn(DUP);
+            mv.visitJumpInsn(IFNULL, failure);
+        } else {
+            mv.visitInsn(DUP); // Duplicate the value
+            mv.visitMethodInsn(INVOKESTATIC, checkNotNullClass, checkMethod, "(Ljava/lang/Object;)V");
+        }
+    }
+    
     @Override
     public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
         if (desc.equals(NotNullCheckWeaver.notNullAnnotationDesc))
@@ -374,15 +1088,123 @@ class NotNullCodeAdapter extends MethodVisitor implements Opcodes {
     @Override
     public void visitCode() {
         super.visitCode();
+        if (analyzer != null) {
+            // The writer takes the first frame it is given to be the implicit frame at the method entry.
+            // The reader only visits that frame if the method has frames of its own, and only after the
+            // argument checks, so it is visited here instead.
+            Object[] locals = frameTypes(analyzer.locals);
+            mv.visitFrame(F_NEW, locals.length, locals, 0, new Object[0]);
+        }
+        // The argument checks of the compact emission, as pairs of an argument index and its local
+        ArrayList<int[]> coalescedChecks = classAdapter.options.emission == WeaverOptions.Emission.COMPACT ? new ArrayList<int[]>() : null;
+        boolean checksArguments = classAdapter.isChecking(WeavingPolicy.ARGUMENTS);
         int j = isStatic ? 0 : 1;
         for (int i = 0; i < argTypes.length; i++) {
-            if (argTypes[i].getSort() == Type.OBJECT && isParameterNotNull(i)) {
-                mv.visitIntInsn(ALOAD, j);
-                mv.visitLdcInsn(i);
-                mv.visitMethodInsn(INVOKESTATIC, checkNotNullClass, "checkArgumentNotNull", "(Ljava/lang/Object;I)V");
+            if (!checksArguments) {
+                // Left out by the weaving policy
+            } else if (argTypes[i].getSort() == Type.OBJECT && isParameterNotNull(i) && uncheckedArguments != null && uncheckedArguments.get(i)) {
+                classAdapter.elidedArgumentChecks++;
+            } else if (argTypes[i].getSort() == Type.OBJECT && isParameterNotNull(i)) {
+                countCheck(CheckKind.ARGUMENT, String.valueOf(i));
+                if (classAdapter.options.reportFile != null) {
+                    mv.visitVarInsn(ALOAD, j);
+                    emitReportIfNull(mv, CheckSiteRegistry.register(owner, name, desc, CheckKind.ARGUMENT, String.valueOf(i)));
+                } else if (classAdapter.isUsingIndy()) {
+                    mv.visitVarInsn(ALOAD, j);
+                    emitIndyCheck(CheckKind.ARGUMENT, String.valueOf(i));
+                } else if (classAdapter.options.lightExceptions) {
+                    String parameterName = parameterNames == null ? null : parameterNames[i];
+                    String site = siteName(owner, name, desc, CheckKind.ARGUMENT, parameterName == null ? String.valueOf(i) : i+" "+parameterName);
+                    if (canInlineCheck()) {
+                        Label failure = addFailurePath("newNotNullCheckException", "(Ljava/lang/String;)"+exceptionDesc, site);
+                        mv.visitVarInsn(ALOAD, j);
+                        mv.visitJumpInsn(IFNULL, failure);
+                    } else {
+                        mv.visitVarInsn(ALOAD, j);
+                        emitCheckNotNull(mv, site);
+                    }
+                } else if (canInlineCheck()) {
+                    Label failure = addFailurePath("newArgumentNotNullCheckException", "(I)"+exceptionDesc, i);
+                    mv.visitVarInsn(ALOAD, j);
+                    mv.visitJumpInsn(IFNULL, failure);
+                } else if (coalescedChecks != null && i < 31) {
+                    coalescedChecks.add(new int[] {i, j});
+                } else {
+                    mv.visitIntInsn(ALOAD, j);
+                    mv.visitLdcInsn(i);
+                    mv.visitMethodInsn(INVOKESTATIC, checkNotNullClass, "checkArgumentNotNull", "(Ljava/lang/Object;I)V");
+                }
             }
             j += argTypes[i].getSize();
         }
+        if (coalescedChecks != null)
+            emitCoalescedArgumentChecks(coalescedChecks);
+    }
+    
+    /**
+     * Emits the argument checks of the compact emission: a helper call per four arguments, which takes the arguments
+     * and a mask of their indexes, so that each further argument adds a single load instruction.
+     */
+    private void emitCoalescedArgumentChecks(List<int[]> checks) {
+        for (int from = 0; from < checks.size(); from += 4) {
+            List<int[]> group = checks.subList(from, Math.min(from + 4, checks.size()));
+            StringBuilder helperDesc = new StringBuilder("(");
+            int indexes = 0;
+            for (int[] check : group) {
+                mv.visitVarInsn(ALOAD, check[1]);
+                helperDesc.append("Ljava/lang/Object;");
+                indexes |= 1 << check[0];
+            }
+            if (group.size() == 1) {
+                pushInt(group.get(0)[0]);
+                mv.visitMethodInsn(INVOKESTATIC, checkNotNullClass, "checkArgumentNotNull", "(Ljava/lang/Object;I)V");
+            } else {
+                pushInt(indexes);
+                mv.visitMethodInsn(INVOKESTATIC, checkNotNullClass, "checkArgumentsNotNull", helperDesc.append("I)V").toString());
+            }
+            maxEntryStack = Math.max(maxEntryStack, group.size() + 1);
+        }
+    }
+    
+    /** Pushes an int constant with the shortest instruction. */
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5)
+            mv.visitInsn(ICONST_0 + value);
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+            mv.visitIntInsn(BIPUSH, value);
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+            mv.visitIntInsn(SIPUSH, value);
+        else
+            mv.visitLdcInsn(value);
+    }
+
+    @Override
+    public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
+        if (analyzer != null && !implicitFrameVisited) {
+            implicitFrameVisited = true; // Already visited in visitCode
+            return;
+        }
+        super.visitFrame(type, nLocal, local, nStack, stack);
+    }
+
+    @Override
+    public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+        if (classAdapter.isInliningChecks())
+            tryCatchBlocks.add(new TryCatchBlock(start, end, handler, type));
+        super.visitTryCatchBlock(start, end, handler, type);
+    }
+
+    @Override
+    public void visitLabel(Label label) {
+        if (!tryCatchBlocks.isEmpty())
+            visitedLabels.add(label);
+        super.visitLabel(label);
+    }
+
+    @Override
+    public void visitLineNumber(int line, Label start) {
+        this.line = line;
+        super.visitLineNumber(line, start);
     }
 
     @Override
@@ -397,15 +1219,14 @@ class NotNullCodeAdapter extends MethodVisitor implements Opcodes {
             case GETFIELD:
                 if (classAdapter.inspector.notNullInstanceFields.contains(new FieldInfo(name, desc))) {
                     mv.visitFieldInsn(opcode, owner, name, desc);
-                    mv.visitInsn(DUP); // Duplicate the value
-                    mv.visitMethodInsn(INVOKESTATIC, checkNotNullClass, "checkGetFieldNotNull", "(Ljava/lang/Object;)V");
+                    if (isReadCheckNeeded(name, desc))
+                        checkTopOfStack(CheckKind.FIELD_READ, name, "checkGetFieldNotNull", "newGetFieldNotNullCheckException");
                     return;
                 }
                 break;
             case PUTFIELD:
-                if (classAdapter.inspector.notNullInstanceFields.contains(new FieldInfo(name, desc))) {
-                    mv.visitInsn(DUP); // Duplicate the value
-                    mv.visitMethodInsn(INVOKESTATIC, checkNotNullClass, "checkPutFieldNotNull", "(Ljava/lang/Object;)V");
+                if (classAdapter.inspector.notNullInstanceFields.contains(new FieldInfo(name, desc)) && classAdapter.isChecking(WeavingPolicy.FIELD_WRITES)) {
+                    checkTopOfStack(CheckKind.FIELD_WRITE, name, "checkPutFieldNotNull", "newPutFieldNotNullCheckException");
                     mv.visitFieldInsn(opcode, owner, name, desc);
                     return;
                 }
@@ -413,15 +1234,14 @@ class NotNullCodeAdapter extends MethodVisitor implements Opcodes {
             case GETSTATIC:
                 if (classAdapter.inspector.notNullStaticFields.contains(new FieldInfo(name, desc))) {
                     mv.visitFieldInsn(opcode, owner, name, desc);
-                    mv.visitInsn(DUP); // Duplicate the value
-                    mv.visitMethodInsn(INVOKESTATIC, checkNotNullClass, "checkGetFieldNotNull", "(Ljava/lang/Object;)V");
+                    if (isReadCheckNeeded(name, desc))
+                        checkTopOfStack(CheckKind.FIELD_READ, name, "checkGetFieldNotNull", "newGetFieldNotNullCheckException");
                     return;
                 }
                 break;
             case PUTSTATIC:
-                if (classAdapter.inspector.notNullStaticFields.contains(new FieldInfo(name, desc))) {
-                    mv.visitInsn(DUP); // Duplicate the value
-                    mv.visitMethodInsn(INVOKESTATIC, checkNotNullClass, "checkPutFieldNotNull", "(Ljava/lang/Object;)V");
+                if (classAdapter.inspector.notNullStaticFields.contains(new FieldInfo(name, desc)) && classAdapter.isChecking(WeavingPolicy.FIELD_WRITES)) {
+                    checkTopOfStack(CheckKind.FIELD_WRITE, name, "checkPutFieldNotNull", "newPutFieldNotNullCheckException");
                     mv.visitFieldInsn(opcode, owner, name, desc);
                     return;
                 }
@@ -433,23 +1253,68 @@ class NotNullCodeAdapter extends MethodVisitor implements Opcodes {
     
     @Override
     public void visitInsn(int opcode) {
-        if (opcode == ARETURN && isResultNotNull()) {
-            mv.visitInsn(DUP);
-            mv.visitMethodInsn(INVOKESTATIC, checkNotNullClass, "checkResultNotNull", "(Ljava/lang/Object;)V");
-        } else if (opcode == RETURN && classAdapter.inspector.notNullInstanceFields.size() > 0 && name.equals("<init>")) {
-            mv.visitIntInsn(ALOAD, 0); // this
-            mv.visitMethodInsn(INVOKESPECIAL, owner, NotNullClassAdapter.initCheckMethodName, "()V");
-        } else if (opcode == RETURN && classAdapter.inspector.notNullStaticFields.size() > 0 && name.equals("<clinit>")) {
-            if (classAdapter.inspector.isInterface)
-                NotNullClassAdapter.generateStaticFieldsInitializedChecks(mv, classAdapter.inspector);
+        BitSet initialized = null;
+        if (opcode == RETURN && initializedFields != null)
+            initialized = initializedFields.get(returns++);
+        if (opcode == ARETURN && isResultNotNull() && classAdapter.isChecking(WeavingPolicy.RESULTS)) {
+            checkTopOfStack(CheckKind.RESULT, null, "checkResultNotNull", "newResultNotNullCheckException");
+        } else if (opcode == RETURN && classAdapter.inspector.notNullInstanceFields.size() > 0 && name.equals("<init>")
+                // A constructor that delegates to another of this class relies on the checks of its own stores
+                && (!delegatesToThis || !classAdapter.isChecking(WeavingPolicy.FIELD_WRITES))
+                && classAdapter.isChecking(WeavingPolicy.CONSTRUCTORS)
+                && (initialized == null || initialized.cardinality() < classAdapter.inspector.notNullInstanceFields.size())) {
+            countCheck(CheckKind.CONSTRUCTOR, null);
+            if (classAdapter.addsMethods && (initialized == null || initialized.isEmpty())) {
+                mv.visitIntInsn(ALOAD, 0); // this
+                mv.visitMethodInsn(INVOKESPECIAL, owner, NotNullClassAdapter.initCheckMethodName, "()V");
+            } else {
+                // Check only the fields that may not have been initialized, in place
+                NotNullClassAdapter.generateInstanceFieldsInitializedChecks(mv, classAdapter.inspector, classAdapter.options, initialized);
+            }
+        } else if (opcode == RETURN && classAdapter.inspector.notNullStaticFields.size() > 0 && name.equals("<clinit>")
+                && classAdapter.isChecking(WeavingPolicy.STATIC_INITIALIZERS)) {
+            countCheck(CheckKind.CONSTRUCTOR, null);
+            if (classAdapter.inspector.isInterface || !classAdapter.addsMethods)
+                NotNullClassAdapter.generateStaticFieldsInitializedChecks(mv, classAdapter.inspector, classAdapter.options);
             else
                 mv.visitMethodInsn(INVOKESTATIC, owner, NotNullClassAdapter.clinitCheckMethodName, "()V");
         }
         super.visitInsn(opcode);
     }
     
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+        if (opcode == NEW)
+            uninitializedNews++;
+        super.visitTypeInsn(opcode, type);
+    }
+    
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String desc) {
+        // The arguments of a constructor call are evaluated before the call, so the constructor calls
+        // of the objects created by a constructor nest; the first call that matches no NEW initializes this.
+        if (opcode == INVOKESPECIAL && name.equals("<init>") && this.name.equals("<init>") && !thisInitialized) {
+            if (uninitializedNews > 0) {
+                uninitializedNews--;
+            } else {
+                thisInitialized = true;
+                delegatesToThis = owner.equals(this.owner);
+            }
+        }
+        super.visitMethodInsn(opcode, owner, name, desc);
+    }
+    
+    // The failure paths go after the last instruction, which the reader visits before the local variables.
+    
+    @Override
+    public void visitLocalVariable(String name, String desc, String signature, Label start, Label end, int index) {
+        emitFailurePaths();
+        super.visitLocalVariable(name, desc, signature, start, end, index);
+    }
+    
     @Override
     public void visitMaxs(int maxStack, int maxLocals) {
-        super.visitMaxs(maxStack + 2, maxLocals);
+        emitFailurePaths();
+        super.visitMaxs(Math.max(maxStack + 2, maxEntryStack), maxLocals);
     }
 }
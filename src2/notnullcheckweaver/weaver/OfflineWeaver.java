@@ -0,0 +1,561 @@
+package notnullcheckweaver.weaver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+
+/**
+ * Weaves the checks into the classes of jar files or class directories ahead of time, so that the
+ * program can run without the agent and without the cost of weaving at class load time.
+ *
+ * <p>Usage:</p>
+ * <pre>java -jar notnullcheckweaver-weaver.jar [-options <i>options</i>] [-threads <i>n</i>] [-manifest <i>file</i>] <i>input</i> <i>output</i> [<i>input</i> <i>output</i> ...]</pre>
+ * <p>Each input, a jar file or a directory of classes, is written to the output that follows it, a jar
+ * file if its name ends in <code>.jar</code> and a directory otherwise, with the classes accepted by the
+ * options woven and all other entries copied. The options are those of the agent. The nullness of a
+ * package is taken from the <code>package-info</code> classes in the inputs, so all packages of the
+ * program should be woven together. Signature files are left out, since the woven classes no longer
+ * match them.</p>
+ *
+ * <p>With a manifest, the weaver only weaves or copies the entries that changed since the run that wrote
+ * the manifest: the entries whose input changed, and the classes whose package nullness changed because
+ * the <code>package-info</code> of their package or of a superpackage changed. It leaves an output jar
+ * whose entries all are unchanged alone, and in an output directory only writes the changed entries and
+ * deletes those whose input is gone. See {@link OfflineWeaverManifest}.</p>
+ *
+ * <p>With the option <code>closedWorld=true</code>, the weaver first analyzes the calls in the classes of the
+ * inputs that are in the packages of the classes to weave, and leaves out the argument checks of the methods that code outside the inputs cannot call and that
+ * are only passed values known not to be null; see {@link PrivateArgumentAnalyzer}. Then the woven code of a
+ * class also depends on the other classes, so with a manifest, the parameters whose checks a class leaves out
+ * are part of its record.</p>
+ *
+ * <p>The woven classes need <code>notnullcheckweaver.jar</code> on the class path at run time, and must
+ * not be woven again by the agent.</p>
+ */
+public final class OfflineWeaver {
+
+    /** A jar or directory entry, with its contents once read. */
+    static final class Entry {
+        final String name;
+        final long time;
+        /** The entry of the input jar, whose method, extra field and comment the output keeps; null for a file. */
+        final JarEntry jarEntry;
+        byte[] contents;
+        /** The manifest record of the entry in the previous run, and in this run; null without a manifest. */
+        OfflineWeaverManifest.Record previous;
+        OfflineWeaverManifest.Record record;
+        /** Whether the output of the entry is the same as in the previous run, which is then kept. */
+        boolean unchanged;
+
+        Entry(String name, long time, JarEntry jarEntry, byte[] contents) {
+            this.name = name;
+            this.time = time;
+            this.jarEntry = jarEntry;
+            this.contents = contents;
+        }
+    }
+
+    /** An input and the entries read from it. */
+    static final class Input {
+        final File file;
+        final File output;
+        final List<Entry> entries = new ArrayList<Entry>();
+
+        Input(File file, File output) {
+            this.file = file;
+            this.output = output;
+        }
+
+        boolean isJarOutput() {
+            return output.getName().endsWith(".jar");
+        }
+    }
+
+    /** Weaves the classes in a range of an array of entries, splitting the range among the pool's workers. */
+    private final class WeaveTask extends RecursiveAction {
+        private static final int THRESHOLD = 16;
+
+        private final Entry[] entries;
+        private final int from;
+        private final int to;
+
+        WeaveTask(Entry[] entries, int from, int to) {
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++)
+                    process(entries[i]);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new WeaveTask(entries, from, middle), new WeaveTask(entries, middle, to));
+            }
+        }
+    }
+
+    private final WeaverOptions options;
+    private final ClassNameFilter classNameFilter;
+    private final List<Input> inputs = new ArrayList<Input>();
+    /** The package-info classes in the inputs, by package name; the first one in the order of the inputs. */
+    private final HashMap<String, byte[]> packageInfos = new HashMap<String, byte[]>();
+    /** The nullness of the packages of the classes to weave; filled in before the classes are woven in parallel. */
+    private final HashMap<String, Boolean> packageNotNull = new HashMap<String, Boolean>();
+    /** Null unless weaving incrementally. */
+    private OfflineWeaverManifest manifest;
+    /**
+     * The parameters whose checks are left out, by class name and then by method name and descriptor;
+     * null unless the world is closed. Filled in before the classes are woven in parallel.
+     */
+    private Map<String, Map<String, BitSet>> uncheckedArguments;
+
+    private final AtomicInteger wovenCount = new AtomicInteger();
+    private int unchangedCount;
+
+    OfflineWeaver(WeaverOptions options) {
+        this.options = options;
+        this.classNameFilter = options.createClassNameFilter();
+    }
+
+    /** Identifies the weaver and the options, which the woven code and the choice of classes to weave depend on. */
+    String getFingerprint() throws IOException {
+        return OfflineWeaverManifest.hex(WovenClassCache.weaverDigest())
+            +" "+options.getCodeOptions()+",include="+options.includes+",exclude="+options.excludes;
+    }
+
+    void readManifest(File file) throws IOException {
+        manifest = OfflineWeaverManifest.read(file, getFingerprint());
+    }
+
+    static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = is.read(buffer)) > 0; )
+            out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+
+    void addInput(File file, File output) throws IOException {
+        Input input = new Input(file, output);
+        if (file.isDirectory()) {
+            readDirectory(input, file, "");
+        } else {
+            JarFile jar = new JarFile(file);
+            try {
+                for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); ) {
+                    JarEntry jarEntry = e.nextElement();
+                    if (jarEntry.isDirectory()) {
+                        // Kept, so that the directory can still be looked up as a resource of the output jar
+                        input.entries.add(new Entry(jarEntry.getName(), jarEntry.getTime(), jarEntry, new byte[0]));
+                        continue;
+                    }
+                    InputStream is = jar.getInputStream(jarEntry);
+                    try {
+                        input.entries.add(new Entry(jarEntry.getName(), jarEntry.getTime(), jarEntry, readFully(is)));
+                    } finally {
+                        is.close();
+                    }
+                }
+            } finally {
+                jar.close();
+            }
+        }
+        // The first package-info on the class path wins, as it does for the agent
+        for (Entry entry : input.entries) {
+            if (!entry.name.endsWith("/package-info.class"))
+                continue;
+            String packageName = entry.name.substring(0, entry.name.length() - "/package-info.class".length());
+            if (!packageInfos.containsKey(packageName))
+                packageInfos.put(packageName, entry.contents);
+        }
+        inputs.add(input);
+    }
+
+    private static void readDirectory(Input input, File directory, String prefix) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null)
+            throw new IOException("Cannot list directory "+directory);
+        for (File file : files) {
+            String name = prefix + file.getName();
+            if (file.isDirectory()) {
+                readDirectory(input, file, name + "/");
+            } else {
+                InputStream is = new FileInputStream(file);
+                try {
+                    input.entries.add(new Entry(name, file.lastModified(), null, readFully(is)));
+                } finally {
+                    is.close();
+                }
+            }
+        }
+    }
+
+    /** Returns the internal name of the class in the given entry if it is to be woven; null otherwise. */
+    String getClassToWeave(Entry entry) {
+        if (!entry.name.endsWith(".class") || isUnweavableEntry(entry.name))
+            return null;
+        String className = entry.name.substring(0, entry.name.length() - ".class".length());
+        if (!classNameFilter.accepts(className) || NotNullClassFileTransformer.isSkippedClass(className))
+            return null;
+        return className;
+    }
+
+    /** Resolves the nullness of a package through all its superpackages, whether or not the filter accepts them. */
+    boolean isPackageNotNull(String packageName) {
+        if (packageName == null)
+            return false;
+        Boolean result = packageNotNull.get(packageName);
+        if (result == null) {
+            boolean superpackageNotNull = isPackageNotNull(NotNullClassFileTransformer.getPackageName(packageName));
+            byte[] packageInfo = packageInfos.get(packageName);
+            if (packageInfo == null)
+                result = superpackageNotNull;
+            else
+                result = NotNullClassFileTransformer.resolvePackageNotNull(new ClassReader(packageInfo), superpackageNotNull);
+            packageNotNull.put(packageName, result);
+        }
+        return result;
+    }
+
+    /** Weaves the entry if it is a class to weave and, when weaving incrementally, it changed. */
+    void process(Entry entry) {
+        String className = getClassToWeave(entry);
+        // Only reads the package map, which weaveAll filled in for all classes to weave.
+        boolean notNull = className != null && isPackageNotNull(NotNullClassFileTransformer.getPackageName(className));
+        if (manifest != null) {
+            char nullness = className == null ? OfflineWeaverManifest.COPIED : notNull ? OfflineWeaverManifest.NOT_NULL : OfflineWeaverManifest.NOT_NOT_NULL;
+            MessageDigest digest = WovenClassCache.newSha1();
+            digest.update(entry.contents);
+            if (className != null && uncheckedArguments != null)
+                digest.update(describe(getUncheckedArguments(className)).getBytes(StandardCharsets.UTF_8));
+            entry.record = new OfflineWeaverManifest.Record(OfflineWeaverManifest.hex(digest.digest()), nullness);
+            if (entry.record.equals(entry.previous)) {
+                entry.unchanged = true;
+                return;
+            }
+        }
+        if (className != null)
+            weave(entry, notNull);
+    }
+
+    private Map<String, BitSet> getUncheckedArguments(String className) {
+        Map<String, BitSet> result = uncheckedArguments.get(className);
+        return result == null ? Collections.<String, BitSet>emptyMap() : result;
+    }
+
+    /** Describes the given parameters, in an order that does not depend on the map. */
+    private static String describe(Map<String, BitSet> arguments) {
+        return new TreeMap<String, BitSet>(arguments).toString();
+    }
+
+    private void weave(Entry entry, boolean notNull) {
+        try {
+            if (uncheckedArguments == null)
+                entry.contents = NotNullClassFileTransformer.weave(entry.contents, notNull, options);
+            else
+                entry.contents = NotNullClassFileTransformer.weave(entry.contents, notNull, options, getUncheckedArguments(getClassToWeave(entry)));
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Could not weave "+entry.name+": "+e, e);
+        }
+        wovenCount.incrementAndGet();
+    }
+
+    /** Weaves the classes of all inputs on the given pool. */
+    void weaveAll(ForkJoinPool pool) {
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        for (Input input : inputs) {
+            // Without the previous output, everything must be written again.
+            HashMap<String, OfflineWeaverManifest.Record> previous = manifest == null || !input.output.exists() ? null : manifest.getOutput(input.output);
+            for (Entry entry : input.entries) {
+                String className = getClassToWeave(entry);
+                if (className != null)
+                    isPackageNotNull(NotNullClassFileTransformer.getPackageName(className));
+                if (previous != null && (input.isJarOutput() || new File(input.output, entry.name).exists()))
+                    entry.previous = previous.get(entry.name);
+                if (className != null || manifest != null)
+                    entries.add(entry);
+            }
+        }
+        // The failed checks of invokedynamic sites may not throw, so their callers may pass on null.
+        if (options.closedWorld && options.emission != WeaverOptions.Emission.INDY)
+            findUncheckedArguments();
+        pool.invoke(new WeaveTask(entries.toArray(new Entry[entries.size()]), 0, entries.size()));
+    }
+
+    /**
+     * Analyzes the calls in the classes of the packages whose classes are woven with all checks, the classes that are
+     * not woven included. Only code of their own package can call the methods whose checks may be left out, so the
+     * other packages are not read; they may hold class files that the bundled ASM cannot read.
+     */
+    private void findUncheckedArguments() {
+        HashSet<String> packages = new HashSet<String>();
+        for (Input input : inputs) {
+            for (Entry entry : input.entries) {
+                String className = getClassToWeave(entry);
+                if (className != null && options.getPolicyChecks(className) == WeavingPolicy.ALL)
+                    packages.add(NotNullClassFileTransformer.getPackageName(className));
+            }
+        }
+        HashMap<String, ClassNode> classNodes = new HashMap<String, ClassNode>();
+        HashMap<String, NotNullClassInspector> inspectors = new HashMap<String, NotNullClassInspector>();
+        for (Input input : inputs) {
+            for (Entry entry : input.entries) {
+                if (!entry.name.endsWith(".class") || entry.name.startsWith("META-INF/") || entry.name.endsWith("module-info.class"))
+                    continue;
+                if (!packages.contains(NotNullClassFileTransformer.getPackageName(entry.name)))
+                    continue;
+                try {
+                    ClassReader reader = new ClassReader(entry.contents);
+                    ClassNode classNode = new ClassNode();
+                    reader.accept(classNode, ClassReader.SKIP_DEBUG|ClassReader.SKIP_FRAMES);
+                    if (classNodes.containsKey(classNode.name))
+                        continue; // The first one on the class path wins
+                    classNodes.put(classNode.name, classNode);
+                    String className = getClassToWeave(entry);
+                    // Only classes with all checks prove their arguments not null
+                    if (className != null && options.getPolicyChecks(classNode.name) == WeavingPolicy.ALL) {
+                        NotNullClassInspector inspector = new NotNullClassInspector(isPackageNotNull(NotNullClassFileTransformer.getPackageName(className)));
+                        reader.accept(inspector, ClassReader.SKIP_CODE|ClassReader.SKIP_DEBUG|ClassReader.SKIP_FRAMES);
+                        inspectors.put(className, inspector);
+                    }
+                } catch (RuntimeException e) {
+                    throw new RuntimeException("Could not analyze "+entry.name+", which is in a package of classes to weave, for closedWorld=true: "+e, e);
+                }
+            }
+        }
+        uncheckedArguments = PrivateArgumentAnalyzer.analyzeClosedWorld(classNodes.values(), inspectors, options.invariant);
+    }
+
+    /**
+     * Module descriptors, and the classes of multi-release jars for later Java versions, are copied unchanged;
+     * the bundled ASM cannot read them.
+     */
+    static boolean isUnweavableEntry(String name) {
+        return name.equals("module-info.class") || name.endsWith("/module-info.class") || name.startsWith("META-INF/versions/");
+    }
+
+    static boolean isSignatureFile(String name) {
+        if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) >= 0)
+            return false;
+        return name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") || name.endsWith(".EC");
+    }
+
+    void writeAll() throws IOException {
+        for (Input input : inputs) {
+            HashMap<String, OfflineWeaverManifest.Record> records = manifest == null ? null : manifest.getOutput(input.output);
+            if (input.isJarOutput())
+                writeJar(input, records);
+            else
+                writeDirectory(input, records);
+            if (records != null) {
+                records.clear();
+                for (Entry entry : input.entries)
+                    records.put(entry.name, entry.record);
+            }
+        }
+    }
+
+    void writeManifest(File file) throws IOException {
+        manifest.write(file);
+    }
+
+    /**
+     * @param previous the entries of the previous run, which are deleted unless still in the input; null without a manifest
+     */
+    private void writeDirectory(Input input, HashMap<String, OfflineWeaverManifest.Record> previous) throws IOException {
+        HashSet<String> names = new HashSet<String>();
+        for (Entry entry : input.entries) {
+            names.add(entry.name);
+            if (isSignatureFile(entry.name))
+                continue;
+            if (entry.unchanged) {
+                unchangedCount++;
+                continue;
+            }
+            File file = new File(input.output, entry.name);
+            if (entry.name.endsWith("/")) {
+                if (!file.isDirectory() && !file.mkdirs())
+                    throw new IOException("Cannot create directory "+file);
+                continue;
+            }
+            File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs())
+                throw new IOException("Cannot create directory "+parent);
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(entry.contents);
+            } finally {
+                out.close();
+            }
+        }
+        if (previous != null)
+            for (String name : previous.keySet())
+                if (!names.contains(name))
+                    new File(input.output, name).delete();
+    }
+
+    private void writeJar(Input input, HashMap<String, OfflineWeaverManifest.Record> previous) throws IOException {
+        boolean unchanged = previous != null && input.output.exists() && previous.size() == input.entries.size();
+        for (Entry entry : input.entries)
+            unchanged &= entry.unchanged;
+        if (unchanged) {
+            unchangedCount += input.entries.size();
+            return;
+        }
+        readUnchangedClasses(input);
+        File temporary = new File(input.output.getPath() + ".tmp");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(temporary));
+        try {
+            for (Entry entry : input.entries) {
+                if (isSignatureFile(entry.name))
+                    continue;
+                out.putNextEntry(outputEntry(entry));
+                out.write(entry.contents);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(input.output)) {
+            input.output.delete();
+            if (!temporary.renameTo(input.output))
+                throw new IOException("Cannot write "+input.output);
+        }
+    }
+
+    /**
+     * Returns the output jar entry of an entry: a copy of the input jar entry, with its method, time, extra field and
+     * comment, sized for the possibly woven contents; a stored entry, such as a nested jar, stays stored.
+     */
+    private static JarEntry outputEntry(Entry entry) {
+        if (entry.jarEntry == null) {
+            JarEntry jarEntry = new JarEntry(entry.name);
+            if (entry.time != -1)
+                jarEntry.setTime(entry.time);
+            return jarEntry;
+        }
+        JarEntry jarEntry = new JarEntry(entry.jarEntry);
+        CRC32 crc = new CRC32();
+        crc.update(entry.contents);
+        jarEntry.setSize(entry.contents.length);
+        jarEntry.setCrc(crc.getValue());
+        jarEntry.setCompressedSize(jarEntry.getMethod() == JarEntry.STORED ? entry.contents.length : -1);
+        return jarEntry;
+    }
+
+    /** Replaces the contents of the unchanged classes of a jar that is written again by their woven contents in the previous output. */
+    private void readUnchangedClasses(Input input) throws IOException {
+        JarFile jar = null;
+        try {
+            for (Entry entry : input.entries) {
+                if (!entry.unchanged)
+                    continue;
+                unchangedCount++;
+                if (entry.record.nullness == OfflineWeaverManifest.COPIED)
+                    continue; // The input is the output
+                if (jar == null)
+                    jar = new JarFile(input.output);
+                JarEntry jarEntry = jar.getJarEntry(entry.name);
+                if (jarEntry == null) {
+                    // Not written by the previous run after all
+                    unchangedCount--;
+                    weave(entry, entry.record.nullness == OfflineWeaverManifest.NOT_NULL);
+                    continue;
+                }
+                InputStream is = jar.getInputStream(jarEntry);
+                try {
+                    entry.contents = readFully(is);
+                } finally {
+                    is.close();
+                }
+            }
+        } finally {
+            if (jar != null)
+                jar.close();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java -jar notnullcheckweaver-weaver.jar [-options <options>] [-threads <n>] [-manifest <file>] <input> <output> [<input> <output> ...]");
+        System.err.println("Each input is a jar file or a directory of classes; each output is a jar file if its name ends in .jar, and a directory otherwise.");
+        System.err.println("The options are the agent options, such as include=mypackage.,emit=inline");
+        System.err.println("With a manifest, only the entries that changed since the previous run with that manifest are woven and written.");
+        System.err.println("With the option closedWorld=true, the argument checks of methods that only the inputs can call are left out where every call passes a value known not to be null.");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String agentArgs = null;
+        String manifestFile = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i += 2) {
+            if (i + 1 == args.length)
+                usage();
+            if (args[i].equals("-options"))
+                agentArgs = args[i + 1];
+            else if (args[i].equals("-threads"))
+                threads = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("-manifest"))
+                manifestFile = args[i + 1];
+            else
+                usage();
+        }
+        if (i == args.length || (args.length - i) % 2 != 0)
+            usage();
+        WeaverOptions options = WeaverOptions.parse(agentArgs);
+        if (options.registersSites()) {
+            // The sites are registered with the JVM that weaves them.
+            System.err.println("The options siteCounters and report are supported by the agent only");
+            System.exit(2);
+        }
+        if (!options.disables.isEmpty() || !options.enables.isEmpty()) {
+            System.err.println("The options disable and enable are supported by the agent only; use exclude instead");
+            System.exit(2);
+        }
+        OfflineWeaver weaver = new OfflineWeaver(options);
+        if (manifestFile != null)
+            weaver.readManifest(new File(manifestFile));
+        for (; i < args.length; i += 2)
+            weaver.addInput(new File(args[i]), new File(args[i + 1]));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            weaver.weaveAll(pool);
+        } finally {
+            pool.shutdown();
+        }
+        weaver.writeAll();
+        if (manifestFile != null)
+            weaver.writeManifest(new File(manifestFile));
+        if (weaver.options.verbose)
+            System.err.println("notnullcheckweaver: wove "+weaver.wovenCount+" classes; "+weaver.unchangedCount+" entries were unchanged");
+    }
+}
@@ -0,0 +1,133 @@
+package notnullcheckweaver.weaver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records what the offline weaver wrote to each output, so that a later run can skip the entries
+ * whose output would not change.
+ *
+ * <p>The woven code of a class depends only on the class file, the nullness of its package (which
+ * follows from the <code>package-info</code> classes of the package and its superpackages), the
+ * weaver and its options. So the manifest holds, per output and entry, a digest of the input
+ * entry and, for woven classes, the package nullness it was woven with; the weaver and options
+ * are recorded once, and a manifest written with others is ignored.</p>
+ *
+ * <p>The manifest is a text file: a header line, a fingerprint line, and per output an
+ * <code>output</code> line followed by a line per entry holding the digest, the nullness
+ * (<code>+</code> for not-null, <code>-</code> otherwise, <code>=</code> for an entry that is
+ * copied) and the entry name.</p>
+ */
+final class OfflineWeaverManifest {
+    private static final String HEADER = "notnullcheckweaver offline weaver manifest 1";
+    static final char NOT_NULL = '+';
+    static final char NOT_NOT_NULL = '-';
+    static final char COPIED = '=';
+
+    static final class Record {
+        final String digest;
+        final char nullness;
+
+        Record(String digest, char nullness) {
+            this.digest = digest;
+            this.nullness = nullness;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Record))
+                return false;
+            Record record = (Record)other;
+            return digest.equals(record.digest) && nullness == record.nullness;
+        }
+
+        @Override
+        public int hashCode() {
+            return digest.hashCode() * 31 + nullness;
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+
+    private final String fingerprint;
+    /** The records of the entries, by output path and entry name. */
+    final HashMap<String, HashMap<String, Record>> outputs = new HashMap<String, HashMap<String, Record>>();
+
+    OfflineWeaverManifest(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /** Returns the records of the given output; empty if it is not in the manifest. */
+    HashMap<String, Record> getOutput(File output) {
+        String path = output.getAbsolutePath();
+        HashMap<String, Record> records = outputs.get(path);
+        if (records == null) {
+            records = new HashMap<String, Record>();
+            outputs.put(path, records);
+        }
+        return records;
+    }
+
+    /** Reads the manifest; returns an empty one if the file does not exist or was written by another weaver or with other options. */
+    static OfflineWeaverManifest read(File file, String fingerprint) throws IOException {
+        OfflineWeaverManifest manifest = new OfflineWeaverManifest(fingerprint);
+        if (!file.exists())
+            return manifest;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            if (!HEADER.equals(reader.readLine()) || !fingerprint.equals(reader.readLine()))
+                return manifest;
+            HashMap<String, Record> records = null;
+            for (String line; (line = reader.readLine()) != null; ) {
+                if (line.startsWith("output ")) {
+                    records = new HashMap<String, Record>();
+                    manifest.outputs.put(line.substring("output ".length()), records);
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                if (records == null || space < 0 || line.length() < space + 3)
+                    throw new IOException("Malformed offline weaver manifest "+file);
+                records.put(line.substring(space + 3), new Record(line.substring(0, space), line.charAt(space + 1)));
+            }
+        } finally {
+            reader.close();
+        }
+        return manifest;
+    }
+
+    void write(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), "UTF-8");
+        try {
+            writer.write(HEADER + "\n");
+            writer.write(fingerprint + "\n");
+            for (Map.Entry<String, HashMap<String, Record>> output : outputs.entrySet()) {
+                writer.write("output " + output.getKey() + "\n");
+                for (Map.Entry<String, Record> entry : output.getValue().entrySet()) {
+                    Record record = entry.getValue();
+                    writer.write(record.digest + " " + record.nullness + " " + entry.getKey() + "\n");
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        if (!temporary.renameTo(file)) {
+            file.delete();
+            if (!temporary.renameTo(file))
+                throw new IOException("Cannot write offline weaver manifest "+file);
+        }
+    }
+}
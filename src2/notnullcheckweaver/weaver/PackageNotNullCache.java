@@ -0,0 +1,197 @@
+package notnullcheckweaver.weaver;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Caches the nullness of packages, per class loader.
+ *
+ * <p>The JVM calls transformers concurrently from parallel-capable class loaders, so lookups
+ * do not lock: each loader has its own concurrent map from package names to the (possibly
+ * still running) resolution of that package. Threads that race for the same package wait for
+ * the resolution started by the first one, so each package-info is read only once per loader.
+ * A lookup made by the resolving thread itself, when reading the package-info loads a class of the
+ * same package, resolves the package again instead of waiting for itself.
+ * The package nullness index of a loader, if any, is read in the same way, once, when the loader
+ * resolves its first package.</p>
+ *
+ * <p>Loaders are referenced weakly, so that the entries of a discarded loader (for example,
+ * that of a redeployed web application) are collected along with it.</p>
+ */
+abstract class PackageNotNullCache {
+
+    /** A resolution that knows the thread running it, so that a re-entrant lookup on that thread does not wait for itself. */
+    private static final class Resolution<T> extends FutureTask<T> {
+        /** The thread that created and runs the resolution; null once it is done. */
+        private volatile Thread runner = Thread.currentThread();
+
+        Resolution(Callable<T> callable) {
+            super(callable);
+        }
+
+        boolean isRunByCurrentThread() {
+            return runner == Thread.currentThread();
+        }
+
+        @Override
+        protected void done() {
+            runner = null;
+        }
+    }
+
+    /** Weakly references a class loader and holds the packages resolved through it. */
+    private static final class LoaderEntry extends WeakReference<ClassLoader> {
+        private final int hash;
+        final ConcurrentHashMap<String, Resolution<Boolean>> packages = new ConcurrentHashMap<String, Resolution<Boolean>>();
+        /** The reading of the index; null until the loader resolves its first package, or if reading it failed. */
+        final AtomicReference<Resolution<PackageNotNullIndex>> index = new AtomicReference<Resolution<PackageNotNullIndex>>();
+
+        LoaderEntry(ClassLoader loader, ReferenceQueue<ClassLoader> queue) {
+            super(loader, queue);
+            this.hash = System.identityHashCode(loader);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other)
+                return true;
+            if (!(other instanceof LoaderEntry))
+                return false;
+            ClassLoader loader = get();
+            return loader != null && loader == ((LoaderEntry)other).get();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final ConcurrentHashMap<LoaderEntry, LoaderEntry> loaders = new ConcurrentHashMap<LoaderEntry, LoaderEntry>();
+    private final ReferenceQueue<ClassLoader> staleLoaders = new ReferenceQueue<ClassLoader>();
+
+    /** Classes tend to be loaded in bursts from the same loader; this saves the loader map lookup. */
+    private volatile LoaderEntry lastEntry;
+
+    /**
+     * Reads the package nullness index of a loader; returns null if it has none.
+     * Called at most once per loader, unless it fails.
+     */
+    abstract PackageNotNullIndex loadIndex(ClassLoader loader) throws IOException;
+
+    /**
+     * Computes the nullness of a package that is not in the cache yet.
+     * Called at most once per package and loader, unless it fails.
+     *
+     * @param index the index of the loader; null if it has none
+     */
+    abstract boolean resolve(ClassLoader loader, PackageNotNullIndex index, String packageName) throws IOException;
+
+    private LoaderEntry getEntry(ClassLoader loader) {
+        LoaderEntry entry = lastEntry;
+        if (entry != null && entry.get() == loader)
+            return entry;
+        LoaderEntry newEntry = new LoaderEntry(loader, staleLoaders);
+        entry = loaders.get(newEntry);
+        if (entry == null) {
+            for (Reference<? extends ClassLoader> stale; (stale = staleLoaders.poll()) != null; )
+                loaders.remove(stale);
+            entry = loaders.putIfAbsent(newEntry, newEntry);
+            if (entry == null)
+                entry = newEntry;
+        }
+        lastEntry = entry;
+        return entry;
+    }
+
+    boolean get(final ClassLoader loader, final String packageName) {
+        final LoaderEntry entry = getEntry(loader);
+        Resolution<Boolean> task = entry.packages.get(packageName);
+        if (task == null) {
+            Resolution<Boolean> newTask = new Resolution<Boolean>(new Callable<Boolean>() {
+                public Boolean call() throws IOException {
+                    return resolve(loader, getIndex(entry, loader), packageName);
+                }
+            });
+            task = entry.packages.putIfAbsent(packageName, newTask);
+            if (task == null) {
+                task = newTask;
+                newTask.run();
+            }
+        }
+        if (task.isRunByCurrentThread()) {
+            try {
+                return resolve(loader, getIndex(entry, loader), packageName);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        try {
+            return getUninterruptibly(task);
+        } catch (ExecutionException e) {
+            // Do not cache failures; a later load from this package retries.
+            entry.packages.remove(packageName, task);
+            throw rethrow(e);
+        }
+    }
+
+    private PackageNotNullIndex getIndex(LoaderEntry entry, final ClassLoader loader) throws IOException {
+        Resolution<PackageNotNullIndex> task = entry.index.get();
+        if (task == null) {
+            Resolution<PackageNotNullIndex> newTask = new Resolution<PackageNotNullIndex>(new Callable<PackageNotNullIndex>() {
+                public PackageNotNullIndex call() throws IOException {
+                    return loadIndex(loader);
+                }
+            });
+            if (entry.index.compareAndSet(null, newTask)) {
+                task = newTask;
+                newTask.run();
+            } else {
+                task = entry.index.get();
+            }
+        }
+        if (task.isRunByCurrentThread())
+            return loadIndex(loader);
+        try {
+            return getUninterruptibly(task);
+        } catch (ExecutionException e) {
+            entry.index.compareAndSet(task, null);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            throw rethrow(e);
+        }
+    }
+
+    private static RuntimeException rethrow(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException)
+            throw (RuntimeException)cause;
+        if (cause instanceof Error)
+            throw (Error)cause;
+        throw new RuntimeException(cause);
+    }
+
+    private static <T> T getUninterruptibly(FutureTask<T> task) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            for (;;) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package notnullcheckweaver.weaver;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * An index of the nullness of the packages of a jar file or class directory, so that the agent need not look up
+ * and parse the <code>package-info</code> class of each package and its superpackages as the classes are loaded.
+ *
+ * <p>The index is written at build time into the resource {@value #RESOURCE}:</p>
+ * <pre>java -cp notnullcheckweaver-weaver.jar notnullcheckweaver.weaver.PackageNotNullIndex <i>input</i> [<i>input</i> ...]</pre>
+ * <p>It lists, sorted by name, each package that holds a class of the input, and the superpackages of those, with
+ * the annotation of its <code>package-info</code> class in the input, if any. The agent reads the indexes on the class
+ * path of a loader once, when the loader resolves its first package, and only looks up the <code>package-info</code>
+ * classes of the packages that are in no index. A <code>package-info</code> class in an input without an index is then
+ * not seen for the packages that are in an index, so index either all inputs that hold <code>package-info</code> classes
+ * or none.</p>
+ *
+ * <p>The file holds a magic number, the number of packages, and per package its name, in modified UTF-8, and
+ * its state, one of {@link #NO_PACKAGE_INFO}, {@link #INHERITED}, {@link #NOT_NULL} and {@link #NULLABLE}.</p>
+ */
+final class PackageNotNullIndex {
+    static final String RESOURCE = "META-INF/notnullcheckweaver/package-nullness.idx";
+    private static final int MAGIC = 0x4E4E5049;
+
+    /** Returned by {@link #get} for a package that is in no index. */
+    static final int UNKNOWN = -1;
+    /** The input has no <code>package-info</code> class for the package. */
+    static final byte NO_PACKAGE_INFO = 0;
+    /** The <code>package-info</code> class of the package has neither annotation, so that it has the nullness of its superpackage. */
+    static final byte INHERITED = 1;
+    static final byte NOT_NULL = 2;
+    static final byte NULLABLE = 3;
+
+    /** The state of each package, from the first index that has a <code>package-info</code> class for it. */
+    private final HashMap<String, Byte> packages = new HashMap<String, Byte>();
+
+    /** Returns the state of the given package, or {@link #UNKNOWN}. */
+    int get(String packageName) {
+        Byte state = packages.get(packageName);
+        return state == null ? UNKNOWN : state;
+    }
+
+    /** Returns the nullness of a package in the given state, given the nullness of its superpackage. */
+    static boolean resolve(int state, boolean superpackageNotNull) {
+        return state == NOT_NULL || superpackageNotNull && state != NULLABLE;
+    }
+
+    /**
+     * Reads the indexes on the class path of the given loader, in class path order, like the
+     * <code>package-info</code> classes they stand for; returns null if there are none.
+     */
+    static PackageNotNullIndex load(ClassLoader loader) throws IOException {
+        PackageNotNullIndex index = null;
+        for (Enumeration<URL> urls = loader.getResources(RESOURCE); urls.hasMoreElements(); ) {
+            if (index == null)
+                index = new PackageNotNullIndex();
+            InputStream is = urls.nextElement().openStream();
+            try {
+                index.read(is);
+            } finally {
+                is.close();
+            }
+        }
+        return index;
+    }
+
+    private void read(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a package nullness index");
+        for (int count = in.readInt(); count > 0; count--) {
+            String packageName = in.readUTF();
+            byte state = in.readByte();
+            Byte previous = packages.get(packageName);
+            if (previous == null || previous == NO_PACKAGE_INFO)
+                packages.put(packageName, state);
+        }
+    }
+
+    /** Returns the state of each package of the given entries, by package name. */
+    static TreeMap<String, Byte> build(Map<String, byte[]> entries) {
+        TreeMap<String, Byte> packages = new TreeMap<String, Byte>();
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            String name = entry.getKey();
+            if (!name.endsWith(".class") || name.startsWith("META-INF/"))
+                continue;
+            String packageName = NotNullClassFileTransformer.getPackageName(name);
+            for (String p = packageName; p != null && !packages.containsKey(p); p = NotNullClassFileTransformer.getPackageName(p))
+                packages.put(p, NO_PACKAGE_INFO);
+            if (packageName != null && name.endsWith("/package-info.class")) {
+                PackageNotNullVisitor v = new PackageNotNullVisitor();
+                new ClassReader(entry.getValue()).accept(v, ClassReader.SKIP_DEBUG|ClassReader.SKIP_FRAMES|ClassReader.SKIP_CODE);
+                packages.put(packageName, v.packageNotNull ? NOT_NULL : v.packageNullable ? NULLABLE : INHERITED);
+            }
+        }
+        return packages;
+    }
+
+    static void write(TreeMap<String, Byte> packages, OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeInt(packages.size());
+        for (Map.Entry<String, Byte> entry : packages.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeByte(entry.getValue());
+        }
+        out.flush();
+    }
+
+    /** Writes the index of a class directory into it. */
+    static void indexDirectory(File directory) throws IOException {
+        HashMap<String, byte[]> entries = new HashMap<String, byte[]>();
+        readDirectory(directory, "", entries);
+        File file = new File(directory, RESOURCE);
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Cannot create directory "+parent);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            write(build(entries), out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Reads the classes of a directory; the other files are only listed. */
+    private static void readDirectory(File directory, String prefix, Map<String, byte[]> entries) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null)
+            throw new IOException("Cannot list directory "+directory);
+        for (File file : files) {
+            String name = prefix + file.getName();
+            if (file.isDirectory()) {
+                readDirectory(file, name + "/", entries);
+            } else if (name.endsWith("/package-info.class")) {
+                InputStream is = new FileInputStream(file);
+                try {
+                    entries.put(name, OfflineWeaver.readFully(is));
+                } finally {
+                    is.close();
+                }
+            } else {
+                entries.put(name, null);
+            }
+        }
+    }
+
+    /**
+     * Writes the index of a jar file into it, replacing the jar. The other entries, directories included, are copied
+     * with their method, time, extra field and comment.
+     */
+    static void indexJar(File jar) throws IOException {
+        HashMap<String, byte[]> entries = new HashMap<String, byte[]>();
+        List<JarEntry> jarEntries = new ArrayList<JarEntry>();
+        File temporary = new File(jar.getPath() + ".tmp");
+        JarFile in = new JarFile(jar);
+        try {
+            for (Enumeration<JarEntry> e = in.entries(); e.hasMoreElements(); ) {
+                JarEntry jarEntry = e.nextElement();
+                if (jarEntry.getName().equals(RESOURCE))
+                    continue;
+                jarEntries.add(jarEntry);
+                entries.put(jarEntry.getName(), jarEntry.isDirectory() ? new byte[0] : readEntry(in, jarEntry));
+            }
+            JarOutputStream out = new JarOutputStream(new FileOutputStream(temporary));
+            try {
+                for (JarEntry jarEntry : jarEntries) {
+                    JarEntry copy = new JarEntry(jarEntry);
+                    copy.setCompressedSize(-1); // Deflated again, possibly to another size
+                    out.putNextEntry(copy);
+                    out.write(entries.get(jarEntry.getName()));
+                    out.closeEntry();
+                }
+                out.putNextEntry(new JarEntry(RESOURCE));
+                write(build(entries), out);
+                out.closeEntry();
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        if (!temporary.renameTo(jar)) {
+            jar.delete();
+            if (!temporary.renameTo(jar))
+                throw new IOException("Cannot write "+jar);
+        }
+    }
+
+    private static byte[] readEntry(JarFile jar, JarEntry jarEntry) throws IOException {
+        InputStream is = jar.getInputStream(jarEntry);
+        try {
+            return OfflineWeaver.readFully(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: java -cp notnullcheckweaver-weaver.jar notnullcheckweaver.weaver.PackageNotNullIndex <input> [<input> ...]");
+            System.err.println("Writes an index of the nullness of its packages into each input, a jar file or a directory of classes.");
+            System.exit(2);
+        }
+        for (String arg : args) {
+            File input = new File(arg);
+            if (input.isDirectory())
+                indexDirectory(input);
+            else
+                indexJar(input);
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package notnullcheckweaver.weaver;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.Frame;
+import org.objectweb.asm.tree.analysis.SourceInterpreter;
+import org.objectweb.asm.tree.analysis.SourceValue;
+
+/**
+ * Finds the not-null parameters of the private methods of a class whose argument checks are redundant, because
+ * every call of the method in the class passes a value known not to be null.
+ *
+ * <p>A value is known not to be null if it is <code>this</code>, a not-null parameter of the calling method
+ * (which the caller has checked, or whose check was left out for the same reason), a new object or array,
+ * a constant, a not-null field of the class whose read is checked, or the result of a not-null private or static method of the class,
+ * possibly through locals, <code>dup</code> and casts. The sources of the values are found with ASM's source
+ * interpreter.</p>
+ *
+ * <p>Only code of the class can call a private method, except through reflection or a method handle. A method
+ * whose handle is taken in the class keeps its checks, and so does a method that the class never calls, such as
+ * <code>readObject</code>, which is likely called through reflection.</p>
+ *
+ * <p>The offline weaver can also analyze all classes of a program at once, assuming that they hold all code of
+ * their packages. Then the constructors and package-private methods are analyzed as well, since only code of their
+ * package can call them; a package-private method may be called by any call with its name and descriptor, since it
+ * may override or be overridden by a method of another class. The values a caller passes are then also known not
+ * to be null if they are the result of a not-null static method of another woven class. Public and protected
+ * methods, which code outside the set can call, keep their checks.</p>
+ */
+final class PrivateArgumentAnalyzer implements Opcodes {
+
+    /** An analyzed class and its methods. */
+    private static final class AnalyzedClass {
+        final ClassNode classNode;
+        /** Null if the class is not woven, so that nothing it passes is checked. */
+        final NotNullClassInspector inspector;
+        /**
+         * In invariant mode, the fields whose reads are not checked outside construction, but known not to be null;
+         * the reads of the other fields are then not checked at all. Null if all reads are checked.
+         */
+        final Set<FieldInfo> invariantFields;
+        final HashMap<String, MethodNode> methods = new HashMap<String, MethodNode>();
+
+        @SuppressWarnings("unchecked") // The tree API of ASM 4.0_RC2 uses raw lists
+        AnalyzedClass(ClassNode classNode, NotNullClassInspector inspector, Set<FieldInfo> invariantFields) {
+            this.classNode = classNode;
+            this.inspector = inspector;
+            this.invariantFields = invariantFields;
+            for (MethodNode method : (List<MethodNode>)classNode.methods)
+                methods.put(method.name + method.desc, method);
+        }
+    }
+
+    /** A call of a method, at an instruction of the calling method. */
+    private static final class Call {
+        final AnalyzedClass callerClass;
+        final MethodNode caller;
+        final int index;
+
+        Call(AnalyzedClass callerClass, MethodNode caller, int index) {
+            this.callerClass = callerClass;
+            this.caller = caller;
+            this.index = index;
+        }
+    }
+
+    /** The analyzed classes, by internal name. */
+    private final HashMap<String, AnalyzedClass> classes = new HashMap<String, AnalyzedClass>();
+    private final boolean closedWorld;
+    /**
+     * The calls, by the owner, name and descriptor of the called method, and in a closed world also by
+     * its name and descriptor alone.
+     */
+    private final HashMap<String, List<Call>> calls = new HashMap<String, List<Call>>();
+
+    private PrivateArgumentAnalyzer(boolean closedWorld) {
+        this.closedWorld = closedWorld;
+    }
+
+    /**
+     * Returns the indexes of the parameters whose checks can be left out, by method name and descriptor.
+     *
+     * @param invariantFields in invariant mode, the fields of the class known not to be null outside construction;
+     *        null if not in invariant mode
+     */
+    static Map<String, BitSet> analyze(ClassNode classNode, NotNullClassInspector inspector, Set<FieldInfo> invariantFields) {
+        PrivateArgumentAnalyzer analyzer = new PrivateArgumentAnalyzer(false);
+        analyzer.classes.put(inspector.owner, new AnalyzedClass(classNode, inspector, invariantFields));
+        return analyzer.run().get(inspector.owner);
+    }
+
+    /**
+     * Analyzes the given classes as a closed world.
+     *
+     * @param inspectors the inspectors of the classes to weave, by internal name; the other classes are only
+     *        searched for calls
+     * @param invariant whether the classes are woven in invariant mode
+     * @return the indexes of the parameters whose checks can be left out, by class name and then by method name
+     *         and descriptor; only classes with such parameters are in the map
+     */
+    static Map<String, Map<String, BitSet>> analyzeClosedWorld(Collection<ClassNode> classNodes, Map<String, NotNullClassInspector> inspectors,
+            boolean invariant) {
+        PrivateArgumentAnalyzer analyzer = new PrivateArgumentAnalyzer(true);
+        for (ClassNode classNode : classNodes) {
+            NotNullClassInspector inspector = inspectors.get(classNode.name);
+            Set<FieldInfo> invariantFields = null;
+            if (invariant && inspector != null) {
+                InvariantFieldFinder finder = new InvariantFieldFinder();
+                classNode.accept(finder);
+                invariantFields = finder.getInvariantFields();
+            }
+            analyzer.classes.put(classNode.name, new AnalyzedClass(classNode, inspector, invariantFields));
+        }
+        return analyzer.run();
+    }
+
+    private boolean isCandidate(MethodNode method) {
+        if ((method.access & (ACC_ABSTRACT | ACC_NATIVE)) != 0 || method.name.indexOf('$') >= 0 || method.name.equals("<clinit>"))
+            return false;
+        if (!closedWorld)
+            return (method.access & ACC_PRIVATE) != 0 && !method.name.equals("<init>");
+        return (method.access & (ACC_PUBLIC | ACC_PROTECTED)) == 0;
+    }
+
+    /** Returns the key of the calls that may call the given method of the given class. */
+    private static String callKey(String owner, MethodNode method) {
+        if ((method.access & ACC_PRIVATE) != 0 || method.name.equals("<init>"))
+            return owner + "." + method.name + method.desc;
+        return method.name + method.desc;
+    }
+
+    private static boolean hasAnnotation(List<?> annotations, String desc) {
+        if (annotations != null)
+            for (Object annotation : annotations)
+                if (((AnnotationNode)annotation).desc.equals(desc))
+                    return true;
+        return false;
+    }
+
+    private static boolean isNotNull(NotNullClassInspector inspector, List<?> visibleAnnotations, List<?> invisibleAnnotations) {
+        if (inspector == null)
+            return false; // Not woven
+        if (hasAnnotation(visibleAnnotations, NotNullCheckWeaver.notNullAnnotationDesc) || hasAnnotation(invisibleAnnotations, NotNullCheckWeaver.notNullAnnotationDesc))
+            return true;
+        return inspector.isClassNotNull() && !hasAnnotation(visibleAnnotations, NotNullCheckWeaver.nullableAnnotationDesc)
+            && !hasAnnotation(invisibleAnnotations, NotNullCheckWeaver.nullableAnnotationDesc);
+    }
+
+    /**
+     * Whether the method checks the given parameter at its entry, or leaves the check out because its callers pass not-null values.
+     * Bridge and synthetic methods may leave their checks to the method they forward to.
+     */
+    private static boolean isParameterNotNull(AnalyzedClass analyzedClass, MethodNode method, int index) {
+        if (method.name.indexOf('$') >= 0 || (method.access & (ACC_BRIDGE | ACC_SYNTHETIC)) != 0
+                || Type.getArgumentTypes(method.desc)[index].getSort() != Type.OBJECT)
+            return false;
+        return isNotNull(analyzedClass.inspector, method.visibleParameterAnnotations == null ? null : method.visibleParameterAnnotations[index],
+            method.invisibleParameterAnnotations == null ? null : method.invisibleParameterAnnotations[index]);
+    }
+
+    private static boolean isResultNotNull(AnalyzedClass analyzedClass, MethodNode method) {
+        return method.name.indexOf('$') < 0 && (method.access & (ACC_ABSTRACT | ACC_NATIVE)) == 0
+            && isNotNull(analyzedClass.inspector, method.visibleAnnotations, method.invisibleAnnotations);
+    }
+
+    @SuppressWarnings("unchecked") // The tree API of ASM 4.0_RC2 uses raw lists
+    private Map<String, Map<String, BitSet>> run() {
+        HashSet<String> handles = new HashSet<String>();
+        for (AnalyzedClass analyzedClass : classes.values()) {
+            for (MethodNode method : (List<MethodNode>)analyzedClass.classNode.methods) {
+                AbstractInsnNode[] insns = method.instructions.toArray();
+                for (int i = 0; i < insns.length; i++) {
+                    AbstractInsnNode insn = insns[i];
+                    if (insn instanceof MethodInsnNode) {
+                        MethodInsnNode call = (MethodInsnNode)insn;
+                        addCall(call.owner + "." + call.name + call.desc, new Call(analyzedClass, method, i));
+                        if (closedWorld)
+                            addCall(call.name + call.desc, new Call(analyzedClass, method, i));
+                    } else if (insn instanceof LdcInsnNode) {
+                        addHandle(handles, ((LdcInsnNode)insn).cst);
+                    } else if (insn instanceof InvokeDynamicInsnNode) {
+                        InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode)insn;
+                        addHandle(handles, indy.bsm);
+                        for (Object argument : indy.bsmArgs)
+                            addHandle(handles, argument);
+                    }
+                }
+            }
+        }
+        HashMap<String, Map<String, BitSet>> result = new HashMap<String, Map<String, BitSet>>();
+        for (AnalyzedClass analyzedClass : classes.values()) {
+            if (analyzedClass.inspector == null)
+                continue;
+            HashMap<String, BitSet> classResult = new HashMap<String, BitSet>();
+            for (MethodNode method : (List<MethodNode>)analyzedClass.classNode.methods) {
+                String key = callKey(analyzedClass.classNode.name, method);
+                List<Call> methodCalls = calls.get(key);
+                if (!isCandidate(method) || methodCalls == null || handles.contains(key))
+                    continue;
+                int argumentCount = Type.getArgumentTypes(method.desc).length;
+                BitSet notNull = new BitSet();
+                for (int i = 0; i < argumentCount; i++)
+                    if (isParameterNotNull(analyzedClass, method, i))
+                        notNull.set(i);
+                BitSet unchecked = notNull.isEmpty() ? notNull : passedNotNull(methodCalls, argumentCount, notNull);
+                if (!unchecked.isEmpty())
+                    classResult.put(method.name + method.desc, unchecked);
+            }
+            if (!classResult.isEmpty() || !closedWorld)
+                result.put(analyzedClass.classNode.name, classResult);
+        }
+        return result;
+    }
+
+    private void addCall(String key, Call call) {
+        List<Call> list = calls.get(key);
+        if (list == null) {
+            list = new ArrayList<Call>();
+            calls.put(key, list);
+        }
+        list.add(call);
+    }
+
+    /** Adds the keys of the calls of the method of the given handle, if the constant is one. */
+    private void addHandle(HashSet<String> handles, Object constant) {
+        if (constant instanceof Handle) {
+            Handle handle = (Handle)constant;
+            handles.add(handle.getOwner() + "." + handle.getName() + handle.getDesc());
+            if (closedWorld)
+                handles.add(handle.getName() + handle.getDesc());
+        }
+    }
+
+    private static Frame[] analyzeFrames(AnalyzedClass analyzedClass, MethodNode method) {
+        try {
+            return new Analyzer(new SourceInterpreter()).analyze(analyzedClass.classNode.name, method);
+        } catch (AnalyzerException e) {
+            return new Frame[0]; // Leave the class to the verifier; prove nothing
+        }
+    }
+
+    /**
+     * Returns those of the given arguments that every call passes not null. The frames of a caller are computed for
+     * its calls of the method and dropped after them, so that the analysis of a whole program holds the frames of
+     * one method at a time; a caller is analyzed again for each method it calls.
+     */
+    private BitSet passedNotNull(List<Call> methodCalls, int argumentCount, BitSet arguments) {
+        BitSet result = (BitSet)arguments.clone();
+        MethodNode caller = null;
+        Frame[] callerFrames = null;
+        for (Call call : methodCalls) {
+            if (call.caller != caller) {
+                // The calls of a caller are adjacent, in instruction order.
+                caller = call.caller;
+                callerFrames = analyzeFrames(call.callerClass, caller);
+            }
+            if (call.index >= callerFrames.length)
+                return new BitSet();
+            Frame frame = callerFrames[call.index];
+            if (frame == null)
+                continue; // Unreachable
+            for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+                SourceValue value = (SourceValue)frame.getStack(frame.getStackSize() - argumentCount + i);
+                if (!isNotNull(call.callerClass, caller, callerFrames, value, new HashSet<AbstractInsnNode>()))
+                    result.clear(i);
+            }
+            if (result.isEmpty())
+                break;
+        }
+        return result;
+    }
+
+    private static SourceValue top(Frame frame) {
+        return (SourceValue)frame.getStack(frame.getStackSize() - 1);
+    }
+
+    /**
+     * Whether the value is known not to be null. A value that depends on itself, through a local
+     * stored in a loop, is not null if its other sources are not.
+     */
+    @SuppressWarnings("unchecked") // The analysis API of ASM 4.0_RC2 uses raw sets
+    private boolean isNotNull(AnalyzedClass analyzedClass, MethodNode method, Frame[] methodFrames, SourceValue value, HashSet<AbstractInsnNode> visited) {
+        if (value.insns.isEmpty())
+            return false;
+        for (AbstractInsnNode insn : (Iterable<AbstractInsnNode>)value.insns) {
+            if (!visited.add(insn))
+                continue;
+            int index = method.instructions.indexOf(insn);
+            Frame frame = methodFrames[index];
+            switch (insn.getOpcode()) {
+            case NEW:
+            case NEWARRAY:
+            case ANEWARRAY:
+            case MULTIANEWARRAY:
+            case LDC:
+                break;
+            case DUP:
+            case CHECKCAST:
+                if (!isNotNull(analyzedClass, method, methodFrames, top(frame), visited))
+                    return false;
+                break;
+            case ALOAD:
+                if (!isLocalNotNull(analyzedClass, method, methodFrames, frame, ((VarInsnNode)insn).var, visited))
+                    return false;
+                break;
+            case GETFIELD:
+            case GETSTATIC: {
+                FieldInsnNode fieldInsn = (FieldInsnNode)insn;
+                FieldInfo field = new FieldInfo(fieldInsn.name, fieldInsn.desc);
+                NotNullClassInspector inspector = analyzedClass.inspector;
+                if (inspector == null || !fieldInsn.owner.equals(inspector.owner))
+                    return false;
+                boolean notNull = insn.getOpcode() == GETFIELD ? inspector.notNullInstanceFields.contains(field) : inspector.notNullStaticFields.contains(field);
+                if (!notNull || !isReadNotNull(analyzedClass, method, field))
+                    return false;
+                break;
+            }
+            case INVOKESTATIC:
+            case INVOKESPECIAL: {
+                // Private and static methods are not overridden, so the checked result is the one returned.
+                MethodInsnNode call = (MethodInsnNode)insn;
+                AnalyzedClass calleeClass = call.owner.equals(analyzedClass.classNode.name) ? analyzedClass : closedWorld ? classes.get(call.owner) : null;
+                MethodNode callee = calleeClass == null ? null : calleeClass.methods.get(call.name + call.desc);
+                if (callee == null || (callee.access & ACC_PRIVATE) == 0 && call.getOpcode() != INVOKESTATIC || !isResultNotNull(calleeClass, callee))
+                    return false;
+                break;
+            }
+            default:
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether a read of the given not-null field in the given method yields no null: the read is checked, or, in
+     * invariant mode, the field is known not to be null outside construction.
+     */
+    private static boolean isReadNotNull(AnalyzedClass analyzedClass, MethodNode method, FieldInfo field) {
+        if (!InvariantFieldFinder.isCheckedMethod(method.access, method.name))
+            return false;
+        return analyzedClass.invariantFields == null || method.name.equals("<init>") || method.name.equals("<clinit>")
+            || analyzedClass.invariantFields.contains(field);
+    }
+
+    @SuppressWarnings("unchecked") // The analysis API of ASM 4.0_RC2 uses raw sets
+    private boolean isLocalNotNull(AnalyzedClass analyzedClass, MethodNode method, Frame[] methodFrames, Frame frame, int local, HashSet<AbstractInsnNode> visited) {
+        boolean isStatic = (method.access & ACC_STATIC) != 0;
+        Type[] argTypes = Type.getArgumentTypes(method.desc);
+        int slot = isStatic ? 0 : 1;
+        if (local < slot + sizeOf(argTypes)) {
+            // The value on entry, unless the method stores to the parameter; a store merged with the
+            // entry value leaves no trace in the sources of the value.
+            if (storesLocal(method, local))
+                return false;
+            if (!isStatic && local == 0)
+                return true; // this
+            for (int i = 0; i < argTypes.length; i++) {
+                if (slot == local)
+                    return isParameterNotNull(analyzedClass, method, i);
+                slot += argTypes[i].getSize();
+            }
+            return false;
+        }
+        SourceValue stored = (SourceValue)frame.getLocal(local);
+        if (stored.insns.isEmpty())
+            return false;
+        for (AbstractInsnNode store : (Iterable<AbstractInsnNode>)stored.insns) {
+            if (store.getOpcode() != ASTORE)
+                return false;
+            if (!isNotNull(analyzedClass, method, methodFrames, top(methodFrames[method.instructions.indexOf(store)]), visited))
+                return false;
+        }
+        return true;
+    }
+
+    private static int sizeOf(Type[] types) {
+        int size = 0;
+        for (Type type : types)
+            size += type.getSize();
+        return size;
+    }
+
+    private static boolean storesLocal(MethodNode method, int local) {
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext())
+            if (insn.getOpcode() == ASTORE && ((VarInsnNode)insn).var == local)
+                return true;
+        return false;
+    }
+}
@@ -0,0 +1,230 @@
+package notnullcheckweaver.weaver;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.List;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * Finds the reads of not-null fields of the class being woven whose check is redundant, because
+ * on every path to the read the same field of the same object has already been checked, by a
+ * read or a store, with no store, call or monitor instruction in between.
+ *
+ * <p>This is a forward must-analysis over the method's instructions; the facts are the not-null
+ * fields known to hold a checked value. Only reads of static fields and of fields of
+ * <code>this</code> (loaded from local 0, which the method never overwrites) are tracked. A call
+ * or a monitor instruction may let any code run, including code that stores null through
+ * reflection or in another thread, so it forgets all facts. An exception handler starts
+ * without facts, and methods with subroutines are not analyzed.</p>
+ */
+final class RedundantFieldReadAnalyzer implements Opcodes {
+
+    private final MethodNode method;
+    private final String owner;
+    private final NotNullClassInspector inspector;
+    /** Whether the stores are checked too, so that a store also establishes its fact. */
+    private final boolean storesChecked;
+    private final AbstractInsnNode[] insns;
+    private final InsnList instructions;
+    /** Whether local 0 holds <code>this</code> throughout the method. */
+    private final boolean thisIsFixed;
+    /** The facts that hold before each instruction; null for instructions not reached yet. */
+    private final BitSet[] in;
+
+    private RedundantFieldReadAnalyzer(MethodNode method, String owner, NotNullClassInspector inspector, boolean storesChecked) {
+        this.method = method;
+        this.owner = owner;
+        this.inspector = inspector;
+        this.storesChecked = storesChecked;
+        this.instructions = method.instructions;
+        this.insns = instructions.toArray();
+        this.thisIsFixed = (method.access & ACC_STATIC) == 0 && !storesLocal0();
+        this.in = new BitSet[insns.length];
+    }
+
+    /**
+     * Returns the redundant reads, numbered in instruction order among the reads of the
+     * not-null fields of the class; the code adapter numbers the reads it checks in the same way.
+     */
+    static BitSet analyze(MethodNode method, String owner, NotNullClassInspector inspector, boolean storesChecked) {
+        RedundantFieldReadAnalyzer analyzer = new RedundantFieldReadAnalyzer(method, owner, inspector, storesChecked);
+        if (analyzer.insns.length == 0 || analyzer.hasSubroutines())
+            return new BitSet();
+        analyzer.run();
+        return analyzer.redundantReads();
+    }
+
+    private boolean storesLocal0() {
+        for (AbstractInsnNode insn : insns) {
+            int opcode = insn.getOpcode();
+            if (opcode >= ISTORE && opcode <= ASTORE && ((VarInsnNode)insn).var == 0)
+                return true;
+            if (opcode == IINC && ((IincInsnNode)insn).var == 0)
+                return true;
+        }
+        return false;
+    }
+
+    private boolean hasSubroutines() {
+        for (AbstractInsnNode insn : insns)
+            if (insn.getOpcode() == JSR || insn.getOpcode() == RET)
+                return true;
+        return false;
+    }
+
+    /** Returns the index of the fact for the given field of the class being woven, or -1 if the field is not checked. */
+    private int fact(FieldInsnNode insn) {
+        FieldInfo field = new FieldInfo(insn.name, insn.desc);
+        if (insn.getOpcode() == GETFIELD || insn.getOpcode() == PUTFIELD)
+            return inspector.notNullInstanceFields.indexOf(field);
+        int index = inspector.notNullStaticFields.indexOf(field);
+        return index < 0 ? -1 : inspector.notNullInstanceFields.size() + index;
+    }
+
+    /** Returns the instruction before the given one, skipping line numbers but not labels, which may be jump targets. */
+    private AbstractInsnNode previous(AbstractInsnNode insn) {
+        do
+            insn = insn.getPrevious();
+        while (insn != null && insn.getType() == AbstractInsnNode.LINE);
+        return insn;
+    }
+
+    private boolean isLoadThis(AbstractInsnNode insn) {
+        return thisIsFixed && insn != null && insn.getOpcode() == ALOAD && ((VarInsnNode)insn).var == 0;
+    }
+
+    /** Whether the given field instruction's receiver is <code>this</code>, or it has none. */
+    private boolean isOnThis(FieldInsnNode insn) {
+        switch (insn.getOpcode()) {
+        case GETSTATIC:
+        case PUTSTATIC:
+            return true;
+        case GETFIELD:
+            return isLoadThis(previous(insn));
+        default: // PUTFIELD
+            AbstractInsnNode value = previous(insn);
+            if (value == null || value.getOpcode() != ALOAD && value.getOpcode() != LDC)
+                return false;
+            return isLoadThis(previous(value));
+        }
+    }
+
+    @SuppressWarnings("unchecked") // The tree API of ASM 4.0_RC2 uses raw lists
+    private void run() {
+        ArrayDeque<Integer> worklist = new ArrayDeque<Integer>();
+        in[0] = new BitSet();
+        worklist.add(0);
+        for (TryCatchBlockNode block : (List<TryCatchBlockNode>)method.tryCatchBlocks) {
+            int handler = instructions.indexOf(block.handler);
+            in[handler] = new BitSet(); // Stays empty, whatever flows into it
+            worklist.add(handler);
+        }
+        while (!worklist.isEmpty()) {
+            int index = worklist.remove();
+            AbstractInsnNode insn = insns[index];
+            BitSet out = transfer(insn, (BitSet)in[index].clone());
+            int opcode = insn.getOpcode();
+            if (insn instanceof JumpInsnNode) {
+                merge(((JumpInsnNode)insn).label, out, worklist);
+                if (opcode == GOTO)
+                    continue;
+            } else if (insn instanceof TableSwitchInsnNode) {
+                TableSwitchInsnNode tableSwitch = (TableSwitchInsnNode)insn;
+                merge(tableSwitch.dflt, out, worklist);
+                for (LabelNode label : (List<LabelNode>)tableSwitch.labels)
+                    merge(label, out, worklist);
+                continue;
+            } else if (insn instanceof LookupSwitchInsnNode) {
+                LookupSwitchInsnNode lookupSwitch = (LookupSwitchInsnNode)insn;
+                merge(lookupSwitch.dflt, out, worklist);
+                for (LabelNode label : (List<LabelNode>)lookupSwitch.labels)
+                    merge(label, out, worklist);
+                continue;
+            } else if (opcode >= IRETURN && opcode <= RETURN || opcode == ATHROW) {
+                continue;
+            }
+            if (index + 1 < insns.length)
+                merge(index + 1, out, worklist);
+        }
+    }
+
+    private void merge(LabelNode label, BitSet facts, ArrayDeque<Integer> worklist) {
+        merge(instructions.indexOf(label), facts, worklist);
+    }
+
+    private void merge(int index, BitSet facts, ArrayDeque<Integer> worklist) {
+        BitSet old = in[index];
+        if (old == null) {
+            in[index] = (BitSet)facts.clone();
+            worklist.add(index);
+        } else {
+            int cardinality = old.cardinality();
+            old.and(facts);
+            if (old.cardinality() != cardinality)
+                worklist.add(index);
+        }
+    }
+
+    private BitSet transfer(AbstractInsnNode insn, BitSet facts) {
+        switch (insn.getType()) {
+        case AbstractInsnNode.FIELD_INSN:
+            FieldInsnNode fieldInsn = (FieldInsnNode)insn;
+            int opcode = insn.getOpcode();
+            boolean isStore = opcode == PUTFIELD || opcode == PUTSTATIC;
+            if (isStore) {
+                // The store may go through another owner name (such as a subclass) and skip the check.
+                int fact = fact(fieldInsn);
+                if (fact >= 0)
+                    facts.clear(fact);
+            }
+            if (fieldInsn.owner.equals(owner)) {
+                int fact = fact(fieldInsn);
+                if (fact >= 0 && isOnThis(fieldInsn) && (storesChecked || !isStore))
+                    facts.set(fact); // The check passed
+            }
+            break;
+        case AbstractInsnNode.METHOD_INSN:
+        case AbstractInsnNode.INVOKE_DYNAMIC_INSN:
+            facts.clear();
+            break;
+        case AbstractInsnNode.INSN:
+            if (insn.getOpcode() == MONITORENTER || insn.getOpcode() == MONITOREXIT)
+                facts.clear();
+            break;
+        }
+        return facts;
+    }
+
+    private BitSet redundantReads() {
+        BitSet redundant = new BitSet();
+        int read = 0;
+        for (int i = 0; i < insns.length; i++) {
+            AbstractInsnNode insn = insns[i];
+            int opcode = insn.getOpcode();
+            if (opcode != GETFIELD && opcode != GETSTATIC)
+                continue;
+            FieldInsnNode fieldInsn = (FieldInsnNode)insn;
+            if (!fieldInsn.owner.equals(owner))
+                continue;
+            int fact = fact(fieldInsn);
+            if (fact < 0)
+                continue;
+            if (in[i] != null && in[i].get(fact) && isOnThis(fieldInsn))
+                redundant.set(read);
+            read++;
+        }
+        return redundant;
+    }
+}
@@ -0,0 +1,48 @@
+package notnullcheckweaver.weaver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that threads can add to without contending with each other, in the manner of
+ * <code>java.util.concurrent.atomic.LongAdder</code>, which needs Java 8.
+ *
+ * <p>Each thread adds to one of a number of cells, chosen by its thread ID. The cells are
+ * padded to a cache line, so that threads adding to different cells do not share one.</p>
+ */
+final class StripedCounter {
+    /** The distance between cells, in longs; one cache line. */
+    private static final int PADDING = 8;
+    private static final int STRIPE_BITS = stripeBits();
+    
+    private static int stripeBits() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int bits = 1;
+        while (bits < 8 && 1 << bits < processors * 2)
+            bits++;
+        return bits;
+    }
+    
+    /** The cells, preceded and followed by a cache line of padding. */
+    private final AtomicLongArray cells = new AtomicLongArray(((1 << STRIPE_BITS) + 2) * PADDING);
+    
+    private static int cellIndex() {
+        long id = Thread.currentThread().getId();
+        int stripe = ((int)id * 0x9E3779B9) >>> (32 - STRIPE_BITS); // Consecutive IDs get distant stripes
+        return (stripe + 1) * PADDING;
+    }
+    
+    void add(long value) {
+        cells.getAndAdd(cellIndex(), value);
+    }
+    
+    void increment() {
+        add(1);
+    }
+    
+    long sum() {
+        long sum = 0;
+        for (int i = PADDING; i < cells.length() - PADDING; i += PADDING)
+            sum += cells.get(i);
+        return sum;
+    }
+}
@@ -0,0 +1,194 @@
+package notnullcheckweaver.weaver;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Turns checks off and on at run time, by changing the transformer's set of disabled classes and
+ * retransforming the loaded classes it affects.
+ *
+ * <p>Retransformation may not add or remove methods, so a class whose checks are off keeps the
+ * methods that the checks call; see {@link NotNullClassAdapter#checksEnabled}. The classes are
+ * retransformed in batches on a pool of threads: the JVM transforms the classes of a batch on the
+ * calling thread, so batches on different threads are woven in parallel, and only their
+ * redefinition is serialized. If the JVM refuses a batch, its classes are retried one by one, so
+ * that a single class that cannot be retransformed does not hold back the others.</p>
+ */
+final class WeaverControl implements WeaverControlMBean {
+    static final String OBJECT_NAME = "notnullcheckweaver:type=WeaverControl";
+    private static final int BATCH_SIZE = 32;
+
+    private final Instrumentation inst;
+    private final NotNullClassFileTransformer transformer;
+    private final ClassNameFilter classNameFilter;
+    /** Internal name prefixes; guarded by this. */
+    private final List<String> disabled = new ArrayList<String>();
+    private final List<String> enabled = new ArrayList<String>();
+    private final AtomicLong classesRetransformed = new AtomicLong();
+    private final AtomicLong retransformFailures = new AtomicLong();
+
+    WeaverControl(Instrumentation inst, NotNullClassFileTransformer transformer, WeaverOptions options) {
+        this.inst = inst;
+        this.transformer = transformer;
+        this.classNameFilter = options.createClassNameFilter();
+    }
+
+    void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Applies the <code>disable</code> and <code>enable</code> options, in that order.
+     * @param retransform false if the classes the options affect are yet to be loaded
+     */
+    void apply(WeaverOptions options, boolean retransform) {
+        for (String prefix : options.disables)
+            setChecksEnabled(WeaverOptions.internalName(prefix), false, retransform);
+        for (String prefix : options.enables)
+            setChecksEnabled(WeaverOptions.internalName(prefix), true, retransform);
+    }
+
+    public int disableChecks(String prefix) {
+        return setChecksEnabled(WeaverOptions.internalName(prefix), false, true);
+    }
+
+    public int enableChecks(String prefix) {
+        return setChecksEnabled(WeaverOptions.internalName(prefix), true, true);
+    }
+
+    private int setChecksEnabled(String prefix, boolean checksEnabled, boolean retransform) {
+        synchronized (this) {
+            // The prefix overrides the longer prefixes within it.
+            removeWithin(disabled, prefix);
+            removeWithin(enabled, prefix);
+            ClassNameFilter filter = disabled.isEmpty() ? null : new ClassNameFilter(disabled, enabled);
+            if (checksEnabled == (filter == null || !filter.accepts(prefix))) {
+                // Already so by a shorter prefix
+            } else if (checksEnabled) {
+                enabled.add(prefix);
+            } else {
+                disabled.add(prefix);
+            }
+            transformer.disabledFilter = disabled.isEmpty() ? null : new ClassNameFilter(disabled, enabled);
+        }
+        return retransform ? retransform(prefix) : 0;
+    }
+
+    public void setCheckPolicy(String prefix, String policy) {
+        // The policies live in the runtime jar, which the weaver cannot link to.
+        try {
+            Class<?> helper = Class.forName("notnullcheckweaver.NotNullHelper", false, ClassLoader.getSystemClassLoader());
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            Class<? extends Enum> policyClass = (Class<? extends Enum>)Class.forName("notnullcheckweaver.CheckPolicy", false, helper.getClassLoader());
+            @SuppressWarnings("unchecked")
+            Object value = policy.length() == 0 ? null : Enum.valueOf(policyClass, policy.toUpperCase(Locale.ROOT));
+            helper.getMethod("setCheckPolicy", String.class, policyClass).invoke(null, prefix, value);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void removeWithin(List<String> prefixes, String prefix) {
+        for (Iterator<String> i = prefixes.iterator(); i.hasNext(); )
+            if (i.next().startsWith(prefix))
+                i.remove();
+    }
+
+    /** Returns whether the agent should retransform the given loaded class. */
+    private boolean isRetransformable(Class<?> loadedClass, String prefix) {
+        if (loadedClass.isArray() || loadedClass.isPrimitive() || !inst.isModifiableClass(loadedClass))
+            return false;
+        ClassLoader loader = loadedClass.getClassLoader();
+        if (loader == null || loader == WeaverControl.class.getClassLoader())
+            return false; // The JDK's own classes, and the weaver's
+        String name = loadedClass.getName().replace('.', '/');
+        return name.startsWith(prefix) && !name.startsWith(NotNullCheckWeaver.weaverPackageName+"/")
+            && classNameFilter.accepts(name) && !NotNullClassFileTransformer.isSkippedClass(name);
+    }
+
+    /** Retransforms the loaded classes whose name starts with the given internal name prefix; returns how many were retransformed. */
+    int retransform(String prefix) {
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        for (Class<?> loadedClass : inst.getAllLoadedClasses())
+            if (isRetransformable(loadedClass, prefix))
+                classes.add(loadedClass);
+        if (classes.isEmpty())
+            return 0;
+        long before = classesRetransformed.get();
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new RetransformTask(classes.toArray(new Class<?>[classes.size()]), 0, classes.size()));
+        } finally {
+            pool.shutdown();
+        }
+        return (int)(classesRetransformed.get() - before);
+    }
+
+    private final class RetransformTask extends RecursiveAction {
+        private final Class<?>[] classes;
+        private final int from;
+        private final int to;
+
+        RetransformTask(Class<?>[] classes, int from, int to) {
+            this.classes = classes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SIZE) {
+                Class<?>[] batch = new Class<?>[to - from];
+                System.arraycopy(classes, from, batch, 0, batch.length);
+                if (!retransform(batch))
+                    for (Class<?> loadedClass : batch)
+                        if (!retransform(new Class<?>[] {loadedClass}) && transformer.options.verbose)
+                            System.err.println("notnullcheckweaver: cannot retransform "+loadedClass.getName());
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RetransformTask(classes, from, middle), new RetransformTask(classes, middle, to));
+            }
+        }
+
+        private boolean retransform(Class<?>[] batch) {
+            try {
+                inst.retransformClasses(batch);
+            } catch (Exception e) { // UnmodifiableClassException, or UnsupportedOperationException if the woven class has another shape
+                if (batch.length == 1)
+                    retransformFailures.incrementAndGet();
+                return false;
+            } catch (LinkageError e) { // The woven class does not verify
+                if (batch.length == 1)
+                    retransformFailures.incrementAndGet();
+                return false;
+            }
+            classesRetransformed.addAndGet(batch.length);
+            return true;
+        }
+    }
+
+    private static String[] dottedNames(List<String> prefixes) {
+        String[] names = new String[prefixes.size()];
+        for (int i = 0; i < names.length; i++)
+            names[i] = prefixes.get(i).replace('/', '.');
+        return names;
+    }
+
+    public synchronized String[] getDisabledPrefixes() { return dottedNames(disabled); }
+    public synchronized String[] getEnabledPrefixes() { return dottedNames(enabled); }
+    public long getClassesRetransformed() { return classesRetransformed.get(); }
+    public long getRetransformFailures() { return retransformFailures.get(); }
+}
@@ -0,0 +1,34 @@
+package notnullcheckweaver.weaver;
+
+/**
+ * Turns the checks of loaded classes off and on, by retransforming them; registered with the
+ * platform MBean server as <code>notnullcheckweaver:type=WeaverControl</code>.
+ *
+ * <p>A prefix is a fully qualified class name prefix, as in the agent options. If several prefixes
+ * match a class name, the longest one decides, so the checks of a subpackage can be turned on while
+ * those of its enclosing package are off.</p>
+ */
+public interface WeaverControlMBean {
+    /** Turns off the checks of the classes whose name starts with the prefix; returns the number of classes retransformed. */
+    int disableChecks(String prefix);
+    
+    /** Turns the checks of the classes whose name starts with the prefix back on; returns the number of classes retransformed. */
+    int enableChecks(String prefix);
+    
+    /**
+     * Sets the policy (<code>THROW</code>, <code>COUNT</code> or <code>OFF</code>) of the checks woven with
+     * <code>emit=indy</code> whose site name starts with the prefix, without retransforming their classes;
+     * no policy (an empty string) removes the policy of the prefix. See <code>NotNullHelper.setCheckPolicy</code>.
+     */
+    void setCheckPolicy(String prefix, String policy);
+    
+    /** The prefixes whose checks are off, and the longer prefixes among them whose checks are on again. */
+    String[] getDisabledPrefixes();
+    
+    String[] getEnabledPrefixes();
+    
+    /** The number of classes retransformed so far, and the number that the JVM refused to retransform. */
+    long getClassesRetransformed();
+    
+    long getRetransformFailures();
+}
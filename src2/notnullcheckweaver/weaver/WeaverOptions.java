@@ -0,0 +1,230 @@
+package notnullcheckweaver.weaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The weaver options, as given in the agent arguments.
+ *
+ * <p>The agent arguments are a comma-separated list of options of the form <code>name=value</code>:</p>
+ * <dl>
+ * <dt><code>include=</code><i>prefix</i></dt>
+ * <dd>Weaves the classes whose fully qualified name starts with <i>prefix</i>.</dd>
+ * <dt><code>exclude=</code><i>prefix</i></dt>
+ * <dd>Does not weave the classes whose fully qualified name starts with <i>prefix</i>,
+ * unless a longer include prefix matches the name.</dd>
+ * <dt><code>emit=helper</code>, <code>emit=inline</code>, <code>emit=indy</code> or <code>emit=compact</code></dt>
+ * <dd>How checks are emitted: as calls of the <code>NotNullHelper</code> check methods (the default),
+ * as a null test that branches to an out-of-line failure path at the end of the method,
+ * as <code>invokedynamic</code> sites whose policy can be changed at run time through
+ * <code>NotNullHelper.setCheckPolicy</code>, or as helper calls that check up to four arguments at once,
+ * which adds the least code, so that small methods stay below the JIT compiler's inlining thresholds.
+ * Classes older than Java 7 get helper calls instead of <code>invokedynamic</code> sites. The checks at the end of
+ * constructors and static initializers stay helper calls, whose policy cannot be changed.</dd>
+ * <dt><code>elideRedundantReads=true</code></dt>
+ * <dd>Does not check a read of a field of <code>this</code> or of a static field if the method has already
+ * checked that field on every path to the read, with no store, call or monitor instruction in between.
+ * Has no effect in report mode or on <code>invokedynamic</code> sites.</dd>
+ * <dt><code>elidePrivateArguments=true</code></dt>
+ * <dd>Does not check the arguments of a private method if every call of the method in its class passes a value known
+ * not to be null, such as a not-null parameter of the caller, <code>this</code>, a new object, a constant or a not-null
+ * field. A private method called through reflection may then get null; methods that the class never calls, or whose
+ * handle it takes, keep their checks. Has no effect in report mode or on <code>invokedynamic</code> sites.</dd>
+ * <dt><code>closedWorld=true</code></dt>
+ * <dd>Supported by the offline weaver only, which then analyzes the calls in the packages of the classes it weaves,
+ * assuming that its inputs hold all code of those packages. Leaves out the argument checks of private and package-private methods and of constructors if
+ * every call of the method in the inputs passes a value known not to be null, as with <code>elidePrivateArguments</code>.
+ * Public and protected methods keep their checks, and so do methods that are never called or whose handle is taken.
+ * Has no effect on <code>invokedynamic</code> sites.</dd>
+ * <dt><code>invariant=true</code></dt>
+ * <dd>Checks reads of private fields only in constructors and static initializers, if only woven methods of the class
+ * store them. Elsewhere, the store checks and the checks at the end of construction already guarantee that such a field
+ * is not null, unless it was set through reflection or deserialization, or read through a <code>this</code> reference
+ * that escaped from a constructor. Reads of other fields stay checked: other classes, and the <code>access$</code>,
+ * bridge and synthetic methods of the class, store fields without a check.
+ * Has no effect in report mode or on <code>invokedynamic</code> sites.</dd>
+ * <dt><code>lightExceptions=true</code></dt>
+ * <dd>Throws exceptions without a stack trace, whose message is formatted only when it is asked for, and which name the
+ * failed check, including the parameter name if the class has a local variable table.
+ * Has no effect on <code>invokedynamic</code> sites.</dd>
+ * <dt><code>weavingPolicy=</code><i>file</i></dt>
+ * <dd>Weaves only the kinds of checks that the given policy file selects for a class, by globs of class names;
+ * see {@link WeavingPolicy} for its format. Checks that a policy leaves out are also not relied on to leave out
+ * other checks: without field write checks, for example, <code>invariant=true</code> still checks the reads.</dd>
+ * <dt><code>siteCounters=true</code></dt>
+ * <dd>Counts the executions of each check, to find the hot ones. The counts can be read through
+ * <code>NotNullHelper.getCheckSites()</code>, and the most executed checks are printed on the standard error stream at exit.
+ * Turns off the cache.</dd>
+ * <dt><code>report=</code><i>file</i></dt>
+ * <dd>Does not throw when a check fails, but appends a line naming the check, the thread and the time to the given file.
+ * Requires <code>emit=helper</code>, and turns off the cache.</dd>
+ * <dt><code>cache=</code><i>directory</i></dt>
+ * <dd>Keeps the woven classes in the given directory, and loads them from there instead of weaving them again
+ * after a restart. The directory may be shared by JVMs, whatever their cache size.</dd>
+ * <dt><code>cacheSize=</code><i>megabytes</i></dt>
+ * <dd>The maximum size of the woven classes in the cache; by default, 64 MB.</dd>
+ * <dt><code>disable=</code><i>prefix</i></dt>
+ * <dd>Weaves the classes whose fully qualified name starts with <i>prefix</i> without their checks, so that they can
+ * be turned on later through the <code>WeaverControl</code> MBean. Passed to an agent that is already running,
+ * through the attach API, turns off the checks of the loaded classes.</dd>
+ * <dt><code>enable=</code><i>prefix</i></dt>
+ * <dd>Turns the checks of the classes whose name starts with <i>prefix</i> back on.</dd>
+ * <dt><code>jmx=false</code></dt>
+ * <dd>Does not register the statistics and control MBeans. Registering them starts the platform MBean server, and with it
+ * <code>java.util.logging</code>, before the application's main method runs.</dd>
+ * <dt><code>verbose=true</code></dt>
+ * <dd>Reports per class on the standard error stream what the weaver did beyond the default checks,
+ * such as the number of redundant checks it left out, and the methods that the checks made too large
+ * to be inlined by the JIT compiler.</dd>
+ * </dl>
+ * <p>An option without a name is an include prefix, so that the single class name prefix
+ * accepted by earlier versions still works. If no include prefix is given, all classes are included.</p>
+ */
+final class WeaverOptions {
+    enum Emission { HELPER, INLINE, INDY, COMPACT }
+    
+    final List<String> includes = new ArrayList<String>();
+    final List<String> excludes = new ArrayList<String>();
+    final List<String> disables = new ArrayList<String>();
+    final List<String> enables = new ArrayList<String>();
+    Emission emission = Emission.HELPER;
+    boolean elideRedundantReads;
+    boolean elidePrivateArguments;
+    boolean closedWorld;
+    boolean invariant;
+    boolean lightExceptions;
+    boolean siteCounters;
+    WeavingPolicy weavingPolicy;
+    String reportFile;
+    boolean verbose;
+    boolean jmx = true;
+    String cacheDirectory;
+    long cacheSize = 64L << 20;
+
+    private WeaverOptions() {}
+
+    static String internalName(String name) {
+        return name.replace('.', '/');
+    }
+
+    static WeaverOptions parse(String agentArgs) {
+        WeaverOptions options = new WeaverOptions();
+        if (agentArgs == null)
+            return options;
+        for (String option : agentArgs.split(",")) {
+            option = option.trim();
+            if (option.length() == 0)
+                continue;
+            int eq = option.indexOf('=');
+            if (eq < 0) {
+                options.includes.add(internalName(option));
+                continue;
+            }
+            String name = option.substring(0, eq).trim();
+            String value = option.substring(eq + 1).trim();
+            options.set(name, value);
+        }
+        if (options.reportFile != null && options.emission != Emission.HELPER)
+            throw new IllegalArgumentException("The notnullcheckweaver option 'report' requires emit=helper");
+        return options;
+    }
+
+    private void set(String name, String value) {
+        if (name.equals("include"))
+            includes.add(internalName(value));
+        else if (name.equals("exclude"))
+            excludes.add(internalName(value));
+        else if (name.equals("disable"))
+            disables.add(value);
+        else if (name.equals("enable"))
+            enables.add(value);
+        else if (name.equals("emit"))
+            emission = parseEnum(Emission.class, name, value);
+        else if (name.equals("elideRedundantReads"))
+            elideRedundantReads = parseBoolean(name, value);
+        else if (name.equals("elidePrivateArguments"))
+            elidePrivateArguments = parseBoolean(name, value);
+        else if (name.equals("closedWorld"))
+            closedWorld = parseBoolean(name, value);
+        else if (name.equals("invariant"))
+            invariant = parseBoolean(name, value);
+        else if (name.equals("lightExceptions"))
+            lightExceptions = parseBoolean(name, value);
+        else if (name.equals("siteCounters"))
+            siteCounters = parseBoolean(name, value);
+        else if (name.equals("weavingPolicy"))
+            weavingPolicy = readWeavingPolicy(value);
+        else if (name.equals("report"))
+            reportFile = value;
+        else if (name.equals("cache"))
+            cacheDirectory = value;
+        else if (name.equals("cacheSize"))
+            cacheSize = parseMegabytes(name, value);
+        else if (name.equals("jmx"))
+            jmx = parseBoolean(name, value);
+        else if (name.equals("verbose"))
+            verbose = parseBoolean(name, value);
+        else
+            throw new IllegalArgumentException("Unknown notnullcheckweaver option '"+name+"'");
+    }
+
+    private static boolean parseBoolean(String name, String value) {
+        if (value.equals("true"))
+            return true;
+        if (value.equals("false"))
+            return false;
+        throw new IllegalArgumentException("Bad value '"+value+"' for notnullcheckweaver option '"+name+"'");
+    }
+
+    private static WeavingPolicy readWeavingPolicy(String file) {
+        try {
+            return WeavingPolicy.read(new File(file));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read notnullcheckweaver policy file '"+file+"': "+e);
+        }
+    }
+
+    /** Returns the kinds of checks that the policy selects for the class with the given internal name. */
+    int getPolicyChecks(String className) {
+        return weavingPolicy == null ? WeavingPolicy.ALL : weavingPolicy.getChecks(className);
+    }
+
+    private static long parseMegabytes(String name, String value) {
+        try {
+            long megabytes = Long.parseLong(value);
+            if (megabytes > 0)
+                return megabytes << 20;
+        } catch (NumberFormatException e) {
+        }
+        throw new IllegalArgumentException("Bad value '"+value+"' for notnullcheckweaver option '"+name+"'");
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> enumClass, String name, String value) {
+        try {
+            return Enum.valueOf(enumClass, value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Bad value '"+value+"' for notnullcheckweaver option '"+name+"'");
+        }
+    }
+
+    /** Whether the woven code holds the IDs of check sites registered in this JVM, so that it cannot be cached or woven ahead of time. */
+    boolean registersSites() {
+        return siteCounters || reportFile != null;
+    }
+
+    /**
+     * Describes the options that affect the woven code of a class, as opposed to which classes are woven;
+     * part of the key of the woven class cache.
+     */
+    String getCodeOptions() {
+        return "emit="+emission+",elideRedundantReads="+elideRedundantReads+",elidePrivateArguments="+elidePrivateArguments+",closedWorld="+closedWorld+",invariant="+invariant+",lightExceptions="+lightExceptions
+            +",weavingPolicy="+(weavingPolicy == null ? "" : weavingPolicy.toString());
+    }
+
+    ClassNameFilter createClassNameFilter() {
+        return new ClassNameFilter(includes, excludes);
+    }
+}
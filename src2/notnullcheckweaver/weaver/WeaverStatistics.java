@@ -0,0 +1,70 @@
+package notnullcheckweaver.weaver;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts what the weaver does. The JVM calls the transformer concurrently, so the counters
+ * are striped, to keep them from becoming a point of contention on the class loading path.
+ */
+final class WeaverStatistics implements WeaverStatisticsMBean {
+    static final String OBJECT_NAME = "notnullcheckweaver:type=WeaverStatistics";
+    
+    final StripedCounter classesInspected = new StripedCounter();
+    final StripedCounter classesWoven = new StripedCounter();
+    final StripedCounter classesRejected = new StripedCounter();
+    final StripedCounter transformNanos = new StripedCounter();
+    /** Only written when a call is slower than all earlier ones, which soon becomes rare. */
+    private final AtomicLong maxTransformNanos = new AtomicLong();
+    final StripedCounter bytesIn = new StripedCounter();
+    final StripedCounter bytesOut = new StripedCounter();
+    final StripedCounter packageInfoLookups = new StripedCounter();
+    final StripedCounter packageIndexHits = new StripedCounter();
+    private final StripedCounter[] checks = new StripedCounter[CheckKind.values().length];
+    /** Null without a cache. */
+    private final WovenClassCache cache;
+    
+    WeaverStatistics(WovenClassCache cache) {
+        this.cache = cache;
+        for (int i = 0; i < checks.length; i++)
+            checks[i] = new StripedCounter();
+    }
+    
+    void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+    
+    void addTransformNanos(long nanos) {
+        transformNanos.add(nanos);
+        for (long max = maxTransformNanos.get(); nanos > max; max = maxTransformNanos.get())
+            if (maxTransformNanos.compareAndSet(max, nanos))
+                break;
+    }
+    
+    /** Adds the checks inserted into a class, indexed by check kind. */
+    void addChecks(int[] counts) {
+        for (int i = 0; i < counts.length; i++)
+            if (counts[i] != 0)
+                checks[i].add(counts[i]);
+    }
+    
+    public long getClassesInspected() { return classesInspected.sum(); }
+    public long getClassesWoven() { return classesWoven.sum(); }
+    public long getClassesRejected() { return classesRejected.sum(); }
+    public long getTransformNanos() { return transformNanos.sum(); }
+    public long getMaxTransformNanos() { return maxTransformNanos.get(); }
+    public long getBytesIn() { return bytesIn.sum(); }
+    public long getBytesOut() { return bytesOut.sum(); }
+    public long getPackageInfoLookups() { return packageInfoLookups.sum(); }
+    public long getPackageIndexHits() { return packageIndexHits.sum(); }
+    public long getCacheHits() { return cache == null ? 0 : cache.hits.sum(); }
+    public long getCacheMisses() { return cache == null ? 0 : cache.misses.sum(); }
+    public long getArgumentChecks() { return checks[CheckKind.ARGUMENT.ordinal()].sum(); }
+    public long getResultChecks() { return checks[CheckKind.RESULT.ordinal()].sum(); }
+    public long getFieldReadChecks() { return checks[CheckKind.FIELD_READ.ordinal()].sum(); }
+    public long getFieldWriteChecks() { return checks[CheckKind.FIELD_WRITE.ordinal()].sum(); }
+    public long getConstructorChecks() { return checks[CheckKind.CONSTRUCTOR.ordinal()].sum(); }
+}
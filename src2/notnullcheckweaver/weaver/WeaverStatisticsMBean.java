@@ -0,0 +1,48 @@
+package notnullcheckweaver.weaver;
+
+/**
+ * The statistics of the weaver agent, registered with the platform MBean server as
+ * <code>notnullcheckweaver:type=WeaverStatistics</code>.
+ */
+public interface WeaverStatisticsMBean {
+    /** The number of classes offered to the weaver by the JVM. */
+    long getClassesInspected();
+    
+    /** The number of classes woven, including those found in the cache. */
+    long getClassesWoven();
+    
+    /** The number of classes not woven because of the include and exclude options or because the weaver skips them. */
+    long getClassesRejected();
+    
+    /** The time spent by the weaver in <code>ClassFileTransformer.transform</code>, in total and in the slowest call. */
+    long getTransformNanos();
+    
+    long getMaxTransformNanos();
+    
+    /** The size of the woven classes, before and after weaving. */
+    long getBytesIn();
+    
+    long getBytesOut();
+    
+    /** The number of package-info classes looked up to find the nullness of a package. */
+    long getPackageInfoLookups();
+    
+    /** The number of packages whose nullness was found in a package nullness index instead. */
+    long getPackageIndexHits();
+    
+    /** The number of woven classes found and not found in the cache; zero without a cache. */
+    long getCacheHits();
+    
+    long getCacheMisses();
+    
+    /** The number of checks inserted, by kind. Classes found in the cache are not counted. */
+    long getArgumentChecks();
+    
+    long getResultChecks();
+    
+    long getFieldReadChecks();
+    
+    long getFieldWriteChecks();
+    
+    long getConstructorChecks();
+}
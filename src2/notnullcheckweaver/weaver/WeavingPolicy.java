@@ -0,0 +1,180 @@
+package notnullcheckweaver.weaver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which kinds of checks to weave into a class, as given by the policy file of the agent option
+ * <code>weavingPolicy=</code><i>file</i>.
+ *
+ * <p>Each line of the file holds a glob of fully qualified class names, followed by the kinds of checks to
+ * turn on or off in the classes it matches; <code>#</code> starts a comment. In a glob, <code>*</code> matches
+ * any characters except a dot, and <code>**</code> any characters. The kinds are <code>arguments</code>,
+ * <code>results</code>, <code>fieldReads</code>, <code>fieldWrites</code>, <code>constructors</code> (the checks
+ * at the end of a constructor) and <code>staticInitializers</code>; a kind, or a kind preceded by <code>+</code>,
+ * turns it on, and a kind preceded by <code>-</code> turns it off. <code>all</code> and <code>none</code> turn all
+ * kinds on or off. A class starts with all checks, and the lines that match it apply in the order of the file,
+ * so that a later line can refine an earlier one:</p>
+ * <pre>
+ * # No field read checks in the data path, except in the rows, which only check their arguments
+ * com.example.data.**      -fieldReads
+ * com.example.data.Row*    none +arguments
+ * </pre>
+ *
+ * <p>The file is read and compiled once, when the options are parsed. A glob is compiled to the literal prefix
+ * before its first wildcard, which most names fail on after a single comparison, and, if it has any wildcard
+ * but a trailing <code>**</code>, to a pattern for the rest of the name.</p>
+ */
+final class WeavingPolicy {
+    static final int ARGUMENTS = 1;
+    static final int RESULTS = 2;
+    static final int FIELD_READS = 4;
+    static final int FIELD_WRITES = 8;
+    static final int CONSTRUCTORS = 16;
+    static final int STATIC_INITIALIZERS = 32;
+    static final int ALL = 63;
+
+    private static final String[] KIND_NAMES = {"arguments", "results", "fieldReads", "fieldWrites", "constructors", "staticInitializers"};
+
+    /** A line of the policy, which maps the checks <i>m</i> of the classes it matches to <code>(m &amp; keep) | set</code>. */
+    private static final class Rule {
+        /** The literal start of the glob, as an internal name prefix. */
+        final String prefix;
+        /** Matches the rest of the name; null if any rest matches, or, if exact, only the empty one. */
+        final Pattern rest;
+        final boolean exact;
+        final int keep;
+        final int set;
+
+        Rule(String prefix, Pattern rest, boolean exact, int keep, int set) {
+            this.prefix = prefix;
+            this.rest = rest;
+            this.exact = exact;
+            this.keep = keep;
+            this.set = set;
+        }
+
+        boolean matches(String className) {
+            if (!className.startsWith(prefix))
+                return false;
+            if (exact)
+                return className.length() == prefix.length();
+            return rest == null || rest.matcher(className).region(prefix.length(), className.length()).matches();
+        }
+    }
+
+    private final List<Rule> rules = new ArrayList<Rule>();
+    /** The lines of the file, normalized; part of the code options. */
+    private final StringBuilder description = new StringBuilder();
+
+    private WeavingPolicy() {}
+
+    static WeavingPolicy read(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            return parse(new BufferedReader(reader), file.getPath());
+        } finally {
+            reader.close();
+        }
+    }
+
+    static WeavingPolicy parse(BufferedReader reader, String fileName) throws IOException {
+        WeavingPolicy policy = new WeavingPolicy();
+        int lineNumber = 0;
+        for (String line; (line = reader.readLine()) != null; ) {
+            lineNumber++;
+            int hash = line.indexOf('#');
+            if (hash >= 0)
+                line = line.substring(0, hash);
+            String[] items = line.trim().split("[\\s,]+");
+            if (items[0].length() == 0)
+                continue;
+            if (items.length == 1)
+                throw new IllegalArgumentException("No check kinds for '"+items[0]+"' at line "+lineNumber+" of notnullcheckweaver policy file "+fileName);
+            int keep = ALL;
+            int set = 0;
+            for (int i = 1; i < items.length; i++) {
+                String item = items[i];
+                if (item.equals("all")) {
+                    set = ALL;
+                } else if (item.equals("none")) {
+                    keep = 0;
+                    set = 0;
+                } else {
+                    boolean off = item.startsWith("-");
+                    int kind = parseKind(off || item.startsWith("+") ? item.substring(1) : item);
+                    if (kind == 0)
+                        throw new IllegalArgumentException("Unknown check kind '"+item+"' at line "+lineNumber+" of notnullcheckweaver policy file "+fileName);
+                    if (off) {
+                        keep &= ~kind;
+                        set &= ~kind;
+                    } else {
+                        set |= kind;
+                    }
+                }
+            }
+            policy.rules.add(compile(items[0], keep, set));
+            if (policy.description.length() > 0)
+                policy.description.append(';');
+            policy.description.append(items[0]).append(':').append(keep).append(':').append(set);
+        }
+        return policy;
+    }
+
+    private static int parseKind(String name) {
+        for (int i = 0; i < KIND_NAMES.length; i++)
+            if (KIND_NAMES[i].equals(name))
+                return 1 << i;
+        return 0;
+    }
+
+    private static Rule compile(String glob, int keep, int set) {
+        String internalGlob = WeaverOptions.internalName(glob);
+        int star = internalGlob.indexOf('*');
+        if (star < 0)
+            return new Rule(internalGlob, null, true, keep, set);
+        String prefix = internalGlob.substring(0, star);
+        String rest = internalGlob.substring(star);
+        if (rest.equals("**"))
+            return new Rule(prefix, null, false, keep, set);
+        StringBuilder regex = new StringBuilder();
+        int literalStart = 0;
+        for (int i = 0; i < rest.length(); i++) {
+            if (rest.charAt(i) != '*')
+                continue;
+            if (literalStart < i)
+                regex.append(Pattern.quote(rest.substring(literalStart, i)));
+            if (i + 1 < rest.length() && rest.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else {
+                regex.append("[^/]*");
+            }
+            literalStart = i + 1;
+        }
+        if (literalStart < rest.length())
+            regex.append(Pattern.quote(rest.substring(literalStart)));
+        return new Rule(prefix, Pattern.compile(regex.toString()), false, keep, set);
+    }
+
+    /** Returns the kinds of checks to weave into the class with the given internal name. */
+    int getChecks(String className) {
+        int checks = ALL;
+        for (Rule rule : rules)
+            if (rule.matches(className))
+                checks = checks & rule.keep | rule.set;
+        return checks;
+    }
+
+    @Override
+    public String toString() {
+        return description.toString();
+    }
+}
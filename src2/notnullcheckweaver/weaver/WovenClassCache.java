@@ -0,0 +1,326 @@
+package notnullcheckweaver.weaver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Keeps woven classes on disk, so that a restarted JVM can load them without weaving them again.
+ *
+ * <p>An entry is keyed by a SHA-1 digest of the class file, the nullness of its package, the weaver's own code
+ * and the options that affect the woven code. Its bytes are kept in a file named after the key. An index of the
+ * entries is memory-mapped: it is a set-associative table of {@value #WAYS}-way buckets, each of which holds at
+ * most its share of the cache size and evicts its least recently used entries to make room. There are enough
+ * buckets for twice as many classes of {@value #EXPECTED_ENTRY_BYTES} bytes as the cache size holds, so that the
+ * cache fills up by size rather than by the number of its entries.</p>
+ *
+ * <p>Several JVMs may share a cache directory. An entry file is written under a temporary name and renamed
+ * once complete, and a bucket is only modified under a lock of its region of the index file, so that a
+ * lookup, which does not lock, finds either a complete entry or none. JVMs with different cache sizes, or
+ * weaver versions with another index format, keep separate index files, named after their geometry, that
+ * share the entry files; an entry evicted by one index is a miss for the others. Errors make lookups miss and stores
+ * fail silently: the cache is never needed for the weaver to work.</p>
+ */
+final class WovenClassCache {
+    private static final int MAGIC = 0x4E4E4357; // "NNCW"
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 64;
+    static final int WAYS = 64;
+    /** The expected size of a woven class; the number of buckets follows from the number of such classes the cache holds. */
+    static final long EXPECTED_ENTRY_BYTES = 4 * 1024;
+
+    // The layout of an entry of the index
+    private static final int DIGEST_SIZE = 20;
+    private static final int SIZE_OFFSET = 20; // int; zero for an empty entry
+    private static final int LAST_USED_OFFSET = 24; // long; milliseconds since the epoch
+    private static final int WEAVE_MICROS_OFFSET = 32; // int; the time it took to weave the class
+    private static final int ENTRY_SIZE = 40;
+
+    private final File directory;
+    private final byte[] fingerprint;
+    private final int buckets;
+    private final long bucketBudget;
+    private final FileChannel indexChannel;
+    private final MappedByteBuffer index;
+    /** A thread of this JVM must hold the lock of a bucket's stripe before it locks the bucket's file region. */
+    private final Object[] stripes = new Object[64];
+    private final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            return newSha1();
+        }
+    };
+
+    final StripedCounter hits = new StripedCounter();
+    final StripedCounter misses = new StripedCounter();
+    /** The time it took to weave the classes found, when they were stored. */
+    final StripedCounter savedWeaveMicros = new StripedCounter();
+    /** The time the transformer spent on lookups that hit, and on lookups that missed, including weaving and storing. */
+    final StripedCounter hitNanos = new StripedCounter();
+    final StripedCounter missNanos = new StripedCounter();
+
+    /**
+     * @param fingerprint identifies the weaver and the options that affect the woven code
+     */
+    WovenClassCache(File directory, long maxBytes, byte[] fingerprint) throws IOException {
+        this.directory = directory;
+        this.fingerprint = fingerprint;
+        this.buckets = (int)Math.max(1, Math.min(maxBytes / (EXPECTED_ENTRY_BYTES * WAYS / 2), 1 << 16));
+        this.bucketBudget = maxBytes / buckets;
+        for (int i = 0; i < stripes.length; i++)
+            stripes[i] = new Object();
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create cache directory "+directory);
+        long indexSize = HEADER_SIZE + (long)buckets * WAYS * ENTRY_SIZE;
+        // Other JVMs may have an index mapped, and their lookups take no lock, so an index file is never truncated
+        // or reset. Its name holds its format and geometry, so that JVMs with another cache size or weaver version
+        // use an index of their own, over the same entry files.
+        File indexFile = new File(directory, "index-"+FORMAT+"-"+buckets+"x"+WAYS);
+        indexChannel = new RandomAccessFile(indexFile, "rw").getChannel();
+        try {
+            index = mapIndex(indexFile, indexSize);
+        } catch (IOException e) {
+            indexChannel.close();
+            throw e;
+        }
+    }
+
+    private MappedByteBuffer mapIndex(File indexFile, long indexSize) throws IOException {
+        FileLock lock = indexChannel.lock();
+        try {
+            MappedByteBuffer result = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexSize);
+            if (result.getInt(0) == 0) {
+                // A new index, which no other JVM uses until its header is written
+                result.putInt(4, FORMAT);
+                result.putInt(8, buckets);
+                result.putInt(12, WAYS);
+                result.putInt(0, MAGIC);
+                result.force();
+            } else if (result.getInt(0) != MAGIC || result.getInt(4) != FORMAT || result.getInt(8) != buckets || result.getInt(12) != WAYS) {
+                throw new IOException(indexFile+" is not a cache index of "+buckets+" buckets of "+WAYS+" entries");
+            }
+            return result;
+        } finally {
+            lock.release();
+        }
+    }
+
+    static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Returns a digest of the weaver's own classes, so that entries woven by another version of the weaver
+     * are not used. The weaver is either a jar file or, when run from the build tree, a class directory.
+     */
+    static byte[] weaverDigest() throws IOException {
+        CodeSource codeSource = WovenClassCache.class.getProtectionDomain().getCodeSource();
+        URL location = codeSource == null ? null : codeSource.getLocation();
+        if (location == null || !location.getProtocol().equals("file"))
+            throw new IOException("Cannot locate the weaver's classes");
+        File file;
+        try {
+            file = new File(location.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        MessageDigest digest = newSha1();
+        addToDigest(digest, file);
+        return digest.digest();
+    }
+
+    private static void addToDigest(MessageDigest digest, File file) throws IOException {
+        if (file.isDirectory()) {
+            String[] names = file.list();
+            if (names == null)
+                throw new IOException("Cannot list directory "+file);
+            Arrays.sort(names);
+            for (String name : names)
+                addToDigest(digest, new File(file, name));
+        } else {
+            InputStream is = new FileInputStream(file);
+            try {
+                digest.update(OfflineWeaver.readFully(is));
+            } finally {
+                is.close();
+            }
+        }
+    }
+
+    byte[] key(byte[] classfileBuffer, boolean packageNotNull) {
+        MessageDigest digest = digests.get();
+        digest.update(fingerprint);
+        digest.update((byte)(packageNotNull ? 1 : 0));
+        digest.update(classfileBuffer);
+        return digest.digest();
+    }
+
+    private int bucketOffset(byte[] key) {
+        int hash = (key[0] & 0xFF) << 24 | (key[1] & 0xFF) << 16 | (key[2] & 0xFF) << 8 | (key[3] & 0xFF);
+        int bucket = (int)((hash & 0xFFFFFFFFL) % buckets);
+        return HEADER_SIZE + bucket * WAYS * ENTRY_SIZE;
+    }
+
+    private boolean entryMatches(int entry, byte[] key) {
+        for (int i = 0; i < DIGEST_SIZE; i++)
+            if (index.get(entry + i) != key[i])
+                return false;
+        return true;
+    }
+
+    private File entryFile(byte[] key) {
+        String name = OfflineWeaverManifest.hex(key);
+        return new File(new File(directory, name.substring(0, 2)), name.substring(2) + ".class");
+    }
+
+    /** Returns the woven class with the given key, or null if it is not in the cache. */
+    byte[] get(byte[] key) {
+        int bucket = bucketOffset(key);
+        for (int way = 0; way < WAYS; way++) {
+            int entry = bucket + way * ENTRY_SIZE;
+            int size = index.getInt(entry + SIZE_OFFSET);
+            if (size == 0 || !entryMatches(entry, key))
+                continue;
+            byte[] bytes = readEntryFile(key, size);
+            if (bytes == null)
+                break;
+            int weaveMicros = index.getInt(entry + WEAVE_MICROS_OFFSET);
+            index.putLong(entry + LAST_USED_OFFSET, System.currentTimeMillis()); // Racy, but only affects eviction order
+            hits.increment();
+            savedWeaveMicros.add(weaveMicros);
+            return bytes;
+        }
+        misses.increment();
+        return null;
+    }
+
+    private byte[] readEntryFile(byte[] key, int size) {
+        File file = entryFile(key);
+        try {
+            InputStream is = new FileInputStream(file);
+            try {
+                byte[] bytes = OfflineWeaver.readFully(is);
+                return bytes.length == size ? bytes : null;
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            return null; // Evicted, possibly by another JVM
+        }
+    }
+
+    /**
+     * Stores a woven class; a class larger than a bucket's share of the cache is not stored.
+     * @param weaveNanos the time it took to weave the class
+     */
+    void put(byte[] key, byte[] woven, long weaveNanos) {
+        if (woven.length == 0 || woven.length > bucketBudget)
+            return;
+        File file = entryFile(key);
+        try {
+            File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+                return;
+            File temporary = File.createTempFile("entry", ".tmp", parent);
+            try {
+                FileOutputStream out = new FileOutputStream(temporary);
+                try {
+                    out.write(woven);
+                } finally {
+                    out.close();
+                }
+                int bucket = bucketOffset(key);
+                synchronized (stripes[(bucket / (WAYS * ENTRY_SIZE)) % stripes.length]) {
+                    FileLock lock = indexChannel.lock(bucket, WAYS * ENTRY_SIZE, false);
+                    try {
+                        insert(bucket, key, woven.length, weaveNanos, temporary, file);
+                    } finally {
+                        lock.release();
+                    }
+                }
+            } finally {
+                temporary.delete(); // Unless it was renamed
+            }
+        } catch (IOException e) {
+            // Not cached
+        }
+    }
+
+    /** Called with the bucket locked. */
+    private void insert(int bucket, byte[] key, int size, long weaveNanos, File temporary, File file) {
+        long used = 0;
+        for (int way = 0; way < WAYS; way++) {
+            int entry = bucket + way * ENTRY_SIZE;
+            int entrySize = index.getInt(entry + SIZE_OFFSET);
+            if (entrySize != 0 && entryMatches(entry, key))
+                return; // Stored by another thread or JVM meanwhile
+            used += entrySize;
+        }
+        int free = -1;
+        for (;;) {
+            int leastRecentlyUsed = -1;
+            long leastRecentlyUsedTime = Long.MAX_VALUE;
+            for (int way = 0; way < WAYS; way++) {
+                int entry = bucket + way * ENTRY_SIZE;
+                if (index.getInt(entry + SIZE_OFFSET) == 0) {
+                    free = entry;
+                } else if (index.getLong(entry + LAST_USED_OFFSET) < leastRecentlyUsedTime) {
+                    leastRecentlyUsed = entry;
+                    leastRecentlyUsedTime = index.getLong(entry + LAST_USED_OFFSET);
+                }
+            }
+            if (free >= 0 && used + size <= bucketBudget)
+                break;
+            used -= evict(leastRecentlyUsed);
+        }
+        if (!temporary.renameTo(file)) {
+            file.delete();
+            if (!temporary.renameTo(file))
+                return;
+        }
+        for (int i = 0; i < DIGEST_SIZE; i++)
+            index.put(free + i, key[i]);
+        index.putLong(free + LAST_USED_OFFSET, System.currentTimeMillis());
+        index.putInt(free + WEAVE_MICROS_OFFSET, (int)Math.min(weaveNanos / 1000, Integer.MAX_VALUE));
+        index.putInt(free + SIZE_OFFSET, size); // Last, as it marks the entry as used
+    }
+
+    /** Returns the size of the evicted entry. */
+    private int evict(int entry) {
+        byte[] key = new byte[DIGEST_SIZE];
+        for (int i = 0; i < DIGEST_SIZE; i++)
+            key[i] = index.get(entry + i);
+        int size = index.getInt(entry + SIZE_OFFSET);
+        index.putInt(entry + SIZE_OFFSET, 0);
+        entryFile(key).delete();
+        return size;
+    }
+
+    /** Returns a summary of the cache's effect on this JVM, for the verbose output. */
+    String getReport() {
+        long hits = this.hits.sum();
+        long misses = this.misses.sum();
+        long lookups = Math.max(1, hits + misses);
+        long hitMillis = hitNanos.sum() / 1000000;
+        long savedMillis = savedWeaveMicros.sum() / 1000;
+        return "cache "+directory+": "+hits+" hits, "+misses+" misses ("+(100 * hits / lookups)+"% hits); "
+            +"the hits took "+hitMillis+" ms instead of "+savedMillis+" ms of weaving, "
+            +"the misses took "+(missNanos.sum() / 1000000)+" ms";
+    }
+}
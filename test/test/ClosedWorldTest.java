@@ -0,0 +1,107 @@
+package test;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import notnullcheckweaver.ArgumentNotNullCheckException;
+import notnullcheckweaver.Nullable;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class ClosedWorldTest {
+	
+	static final boolean closedWorldMode = System.getProperty("notnullcheckweaver.agentargs", "").contains("closedWorld=true");
+	
+	static class Request {
+		final String path;
+		
+		Request(String path) {
+			this.path = path.trim();
+		}
+	}
+	
+	static class Service {
+		public String handle(String path) {
+			return route(new Request(path), path);
+		}
+		
+		public int measure(@Nullable String path) {
+			return Store.length(path);
+		}
+		
+		String route(Request request, String path) {
+			return Store.load(path) + request.path.length();
+		}
+	}
+	
+	static class Store {
+		static String load(String key) {
+			return key.trim();
+		}
+		
+		static int length(String key) {
+			return key.length();
+		}
+		
+		static int neverCalled(String key) {
+			return key.length();
+		}
+	}
+	
+	static Throwable invokeWithNull(Method method, @Nullable Object target) throws Exception {
+		try {
+			method.invoke(target, (Object)null);
+		} catch (InvocationTargetException e) {
+			return e.getCause();
+		}
+		throw new AssertionError();
+	}
+	
+	@Test
+	public void checkedCallers() throws Exception {
+		Assume.assumeTrue(closedWorldMode);
+		
+		Assert.assertEquals("a1", new Service().handle("a"));
+		Assert.assertTrue(invokeWithNull(Store.class.getDeclaredMethod("load", String.class), null) instanceof NullPointerException);
+		Method route = Service.class.getDeclaredMethod("route", Request.class, String.class);
+		try {
+			route.invoke(new Service(), null, "a");
+			Assert.fail();
+		} catch (InvocationTargetException e) {
+			Assert.assertTrue(e.getCause() instanceof NullPointerException);
+		}
+		Constructor<Request> constructor = Request.class.getDeclaredConstructor(String.class);
+		try {
+			constructor.newInstance((Object)null);
+			Assert.fail();
+		} catch (InvocationTargetException e) {
+			Assert.assertTrue(e.getCause() instanceof NullPointerException);
+		}
+	}
+	
+	@Test
+	public void uncheckedCallers() throws Exception {
+		try {
+			new Service().handle(null);
+			Assert.fail();
+		} catch (ArgumentNotNullCheckException e) {
+		}
+		try {
+			new Service().measure(null);
+			Assert.fail();
+		} catch (ArgumentNotNullCheckException e) {
+		}
+		Assert.assertTrue(invokeWithNull(Store.class.getDeclaredMethod("length", String.class), null) instanceof ArgumentNotNullCheckException);
+		Assert.assertTrue(invokeWithNull(Store.class.getDeclaredMethod("neverCalled", String.class), null) instanceof ArgumentNotNullCheckException);
+	}
+	
+	@Test
+	public void openWorld() throws Exception {
+		Assume.assumeTrue(!closedWorldMode);
+		
+		Assert.assertTrue(invokeWithNull(Store.class.getDeclaredMethod("load", String.class), null) instanceof ArgumentNotNullCheckException);
+	}
+}
@@ -0,0 +1,152 @@
+package test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Map;
+
+import notnullcheckweaver.ArgumentNotNullCheckException;
+import notnullcheckweaver.Nullable;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class CompactEmissionTest {
+	
+	/** Whether the classes are woven with emit=compact; the weaver tests below run once, in that run. */
+	static final boolean compactMode = System.getProperty("notnullcheckweaver.agentargs", "").contains("emit=compact");
+	
+	static class Route {
+		// Two groups of coalesced checks with emit=compact, with a wide and an unchecked parameter in between
+		static String join(String a, long b, String c, @Nullable String d, String e, String f, String g, String h) {
+			return a + b + c + d + e + f + g + h;
+		}
+		
+		String pair(String first, String second) {
+			return first + second;
+		}
+	}
+	
+	static int nullArgumentIndex(@Nullable String a, @Nullable String c, @Nullable String e, @Nullable String f, @Nullable String g, @Nullable String h) {
+		try {
+			Route.join(a, 1, c, null, e, f, g, h);
+			return -1;
+		} catch (ArgumentNotNullCheckException exception) {
+			return exception.getArgumentIndex();
+		}
+	}
+	
+	@Test
+	public void argumentIndexes() {
+		Assert.assertEquals("a1cnullefgh", Route.join("a", 1, "c", null, "e", "f", "g", "h"));
+		Assert.assertEquals(0, nullArgumentIndex(null, "c", "e", "f", "g", "h"));
+		Assert.assertEquals(2, nullArgumentIndex("a", null, "e", "f", "g", "h"));
+		Assert.assertEquals(4, nullArgumentIndex("a", "c", null, "f", "g", "h"));
+		Assert.assertEquals(5, nullArgumentIndex("a", "c", "e", null, "g", "h"));
+		Assert.assertEquals(6, nullArgumentIndex("a", "c", "e", "f", null, "h"));
+		Assert.assertEquals(7, nullArgumentIndex("a", "c", "e", "f", "g", null));
+		Assert.assertEquals(2, nullArgumentIndex("a", null, null, "f", "g", null)); // The first null one
+	}
+	
+	@Test
+	public void instanceMethod() {
+		Assert.assertEquals("ab", new Route().pair("a", "b"));
+		try {
+			new Route().pair("a", null);
+			Assert.fail();
+		} catch (ArgumentNotNullCheckException e) {
+			Assert.assertEquals(1, e.getArgumentIndex());
+		}
+	}
+	
+	static class Account {
+		String owner = "owner";
+		
+		void setOwner(String owner) {
+			this.owner = owner;
+		}
+		
+		static int totalLength(String a, String b, String c, String d) {
+			return a.length() + b.length() + c.length() + d.length();
+		}
+	}
+	
+	/** The weaver, loaded from its own jar as the agent loads it, to test its package-private classes. */
+	@Nullable static ClassLoader weaverLoader;
+	
+	static Class<?> weaverClass(String name) throws Exception {
+		if (weaverLoader == null)
+			weaverLoader = new URLClassLoader(new URL[] {new File("notnullcheckweaver-weaver.jar").toURI().toURL()}, null);
+		return Class.forName(name, true, weaverLoader);
+	}
+	
+	/** Calls the static method of the given package-private class of the weaver. */
+	@Nullable static Object callWeaver(String className, String methodName, Object... arguments) throws Exception {
+		for (Method method : weaverClass("notnullcheckweaver.weaver." + className).getDeclaredMethods()) {
+			if (method.getName().equals(methodName) && method.getParameterTypes().length == arguments.length) {
+				method.setAccessible(true);
+				return method.invoke(null, arguments);
+			}
+		}
+		throw new AssertionError(className + "." + methodName);
+	}
+	
+	static byte[] accountClass() throws Exception {
+		InputStream in = Account.class.getResourceAsStream("CompactEmissionTest$Account.class");
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int n; (n = in.read(buffer)) > 0; )
+				out.write(buffer, 0, n);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+	
+	/** Weaves the class as a class of a not-null package, like the test package. */
+	static byte[] weave(byte[] original, String options) throws Exception {
+		return (byte[])callWeaver("NotNullClassFileTransformer", "weave", original, true, callWeaver("WeaverOptions", "parse", options));
+	}
+	
+	@SuppressWarnings("unchecked")
+	static int codeLength(byte[] classFile, String method) throws Exception {
+		Object reader = weaverClass("org.objectweb.asm.ClassReader").getConstructor(byte[].class).newInstance(classFile);
+		return ((Map<String, Integer>)callWeaver("InliningThresholdReport", "codeLengths", reader)).get(method);
+	}
+	
+	@Test
+	public void compactSetterIsSmaller() throws Exception {
+		Assume.assumeTrue(compactMode);
+		byte[] original = accountClass();
+		int unwoven = codeLength(original, "setOwner(Ljava/lang/String;)V");
+		int helper = codeLength(weave(original, "emit=helper"), "setOwner(Ljava/lang/String;)V");
+		int compact = codeLength(weave(original, "emit=compact"), "setOwner(Ljava/lang/String;)V");
+		Assert.assertTrue(unwoven + " < " + compact + " < " + helper, unwoven < compact && compact < helper);
+	}
+	
+	@Test
+	public void methodPushedPastMaxInlineSizeIsReported() throws Exception {
+		Assume.assumeTrue(compactMode);
+		byte[] original = accountClass();
+		byte[] woven = weave(original, "emit=helper");
+		String method = "totalLength(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)I";
+		Assert.assertTrue(codeLength(original, method) <= 35 && codeLength(woven, method) > 35);
+		PrintStream err = System.err;
+		ByteArrayOutputStream report = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(report, true));
+		try {
+			callWeaver("InliningThresholdReport", "report", original, woven);
+		} finally {
+			System.setErr(err);
+		}
+		String expected = "notnullcheckweaver: test.CompactEmissionTest$Account." + method + ": checks grew the code from "
+			+ codeLength(original, method) + " to " + codeLength(woven, method) + " bytes, past MaxInlineSize (35)";
+		Assert.assertTrue(report.toString(), report.toString().contains(expected));
+	}
+}
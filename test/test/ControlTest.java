@@ -0,0 +1,54 @@
+package test;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import notnullcheckweaver.NotNullCheckException;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class ControlTest {
+	
+	static class Switchable {
+		Object value = "value";
+		
+		void set(Object value) {
+			this.value = value;
+		}
+	}
+	
+	static boolean isChecked() {
+		try {
+			new Switchable().set(null);
+			return false;
+		} catch (NotNullCheckException e) {
+			return true;
+		}
+	}
+	
+	Object invoke(String operation, String prefix) throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		return server.invoke(new ObjectName("notnullcheckweaver:type=WeaverControl"), operation, new Object[] {prefix}, new String[] {String.class.getName()});
+	}
+	
+	@Test
+	public void disableAndEnable() throws Exception {
+		ObjectName name = new ObjectName("notnullcheckweaver:type=WeaverControl");
+		Assume.assumeTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name)); // Not when woven ahead of time
+		
+		Assert.assertTrue(isChecked());
+		try {
+			Assert.assertEquals(1, invoke("disableChecks", "test.ControlTest$Switchable"));
+			Assert.assertFalse(isChecked());
+			Assert.assertArrayEquals(new String[] {"test.ControlTest$Switchable"}, (String[])ManagementFactory.getPlatformMBeanServer().getAttribute(name, "DisabledPrefixes"));
+		} finally {
+			Assert.assertEquals(1, invoke("enableChecks", "test.ControlTest$Switchable"));
+		}
+		Assert.assertTrue(isChecked());
+		Assert.assertEquals(0, ((String[])ManagementFactory.getPlatformMBeanServer().getAttribute(name, "DisabledPrefixes")).length);
+	}
+}
@@ -1,17 +1,25 @@
 package test;
 
 import notnullcheckweaver.ArgumentNotNullCheckException;
+import notnullcheckweaver.CheckSite;
 import notnullcheckweaver.ConstructorFieldNotNullCheckException;
 import notnullcheckweaver.GetFieldNotNullCheckException;
+import notnullcheckweaver.NotNullHelper;
 import notnullcheckweaver.Nullable;
 import notnullcheckweaver.PutFieldNotNullCheckException;
 import notnullcheckweaver.StaticInitializerFieldNotNullCheckException;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 public class FieldsTest {
 	
+	/** Whether the weaver checks field reads only in constructors and static initializers. */
+	static final boolean invariantMode = System.getProperty("notnullcheckweaver.agentargs", "").contains("invariant=true");
+	/** Whether the weaver leaves out the field read checks made redundant by an earlier check. */
+	static final boolean elideRedundantReadsMode = System.getProperty("notnullcheckweaver.agentargs", "").contains("elideRedundantReads=true");
+	
 	@Test
 	public void fieldsTest() {
 		class Foo {
@@ -107,6 +115,83 @@ public class FieldsTest {
 		}
 	}
 	
+	static class Counter {
+		private String label = "count";
+		
+		int labelLength() {
+			return label.length() + label.length();
+		}
+		
+		String labelTwice() {
+			String first = label;
+			String second = label; // Checked already, with no call in between
+			return first + second;
+		}
+		
+		int labelLengthAfterClearing() throws Exception {
+			int length = label.length();
+			Counter.class.getDeclaredField("label").set(this, null); // Bypasses the store check
+			return length + label.length();
+		}
+	}
+	
+	@Test
+	public void repeatedFieldReads() throws Exception {
+		Counter counter = new Counter();
+		Assert.assertEquals(10, counter.labelLength());
+		
+		try {
+			counter.labelLengthAfterClearing();
+			Assert.fail();
+		} catch (GetFieldNotNullCheckException e) {
+			Assert.assertFalse(invariantMode);
+		} catch (NullPointerException e) {
+			Assert.assertTrue(invariantMode); // The read is not checked outside the constructor
+		}
+	}
+	
+	static class Box {
+		String content = "content";
+		private String secret = "secret";
+		
+		int contentLength() {
+			return content.length();
+		}
+		
+		int secretLength() {
+			return secret.length();
+		}
+	}
+	
+	@Test
+	public void readsOfFieldsStoredUncheckedStayChecked() {
+		Box box = new Box();
+		box.content = null; // Stored by another class, unchecked
+		try {
+			box.contentLength();
+			Assert.fail();
+		} catch (GetFieldNotNullCheckException e) {
+		}
+		
+		box.secret = null; // Stored through an access$ method of Box, unchecked
+		try {
+			box.secretLength();
+			Assert.fail();
+		} catch (GetFieldNotNullCheckException e) {
+		}
+	}
+	
+	@Test
+	public void redundantReadCheckLeftOut() {
+		Assume.assumeTrue(SiteCountersTest.siteCountersMode);
+		Assert.assertEquals("countcount", new Counter().labelTwice());
+		int readSites = 0;
+		for (CheckSite site : NotNullHelper.getCheckSites())
+			if (site.getClassName().equals(Counter.class.getName()) && site.getMethodName().equals("labelTwice") && site.getKind().equals("FIELD_READ"))
+				readSites++;
+		Assert.assertEquals(elideRedundantReadsMode ? 1 : 2, readSites);
+	}
+	
 	@Test
 	public void staticFields() {
 		Bar.foo();
@@ -122,6 +207,36 @@ public class FieldsTest {
 		Bazz.foo();
 	}
 	
+	static class Money {
+		String currency;
+		long amount;
+		
+		Money(@Nullable String currency, long amount) {
+			if (currency != null)
+				this.currency = currency;
+			this.amount = amount;
+		}
+		
+		Money(long amount) {
+			this(new String("EUR"), amount);
+		}
+		
+		Money() {
+			this(null, 0);
+		}
+	}
+	
+	@Test
+	public void delegatingConstructors() {
+		Assert.assertEquals("EUR", new Money(5).currency);
+		try {
+			new Money(); // Fails in the constructor it delegates to
+			Assert.fail();
+		} catch (ConstructorFieldNotNullCheckException e) {
+			Assert.assertEquals("currency", e.getFieldName());
+		}
+	}
+	
 	@Test
 	public void anonClassInstance() {
 		final Object foo = "Hi";
@@ -0,0 +1,121 @@
+package test;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import notnullcheckweaver.ArgumentNotNullCheckException;
+import notnullcheckweaver.CheckPolicy;
+import notnullcheckweaver.GetFieldNotNullCheckException;
+import notnullcheckweaver.NotNullHelper;
+import notnullcheckweaver.Nullable;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class IndyTest {
+	
+	static final boolean indyMode = System.getProperty("notnullcheckweaver.agentargs", "").contains("emit=indy");
+	
+	static class Target {
+		void accept(Object value) {
+		}
+	}
+	
+	static final String SITE = "test.IndyTest$Target.accept(Ljava/lang/Object;)V ARGUMENT 0";
+	
+	static class Holder {
+		private Object value = "";
+		
+		void set(@Nullable Object value) {
+			this.value = value;
+		}
+		
+		int hash() {
+			return value.hashCode();
+		}
+		
+		int replace(@Nullable Object value) {
+			this.value = value;
+			return this.value.hashCode();
+		}
+	}
+	
+	static final String REPLACE_STORE = "test.IndyTest$Holder.replace(Ljava/lang/Object;)I FIELD_WRITE";
+	
+	static boolean throwsOnNull() {
+		try {
+			new Target().accept(null);
+			return false;
+		} catch (ArgumentNotNullCheckException e) {
+			Assert.assertEquals(0, e.getArgumentIndex());
+			return true;
+		}
+	}
+	
+	@Test
+	public void policies() {
+		Assume.assumeTrue(indyMode);
+		
+		Assert.assertTrue(throwsOnNull());
+		try {
+			NotNullHelper.setCheckPolicy("test.IndyTest$", CheckPolicy.COUNT);
+			Assert.assertFalse(throwsOnNull());
+			Assert.assertFalse(throwsOnNull());
+			Assert.assertEquals(Long.valueOf(2), NotNullHelper.getCheckViolations().get(SITE));
+			
+			NotNullHelper.setCheckPolicy(SITE, CheckPolicy.OFF); // The longer prefix wins
+			Assert.assertFalse(throwsOnNull());
+			Assert.assertEquals(Long.valueOf(2), NotNullHelper.getCheckViolations().get(SITE));
+			
+			NotNullHelper.setCheckPolicy(SITE, null);
+			Assert.assertFalse(throwsOnNull());
+			Assert.assertEquals(Long.valueOf(3), NotNullHelper.getCheckViolations().get(SITE));
+		} finally {
+			NotNullHelper.setCheckPolicy("test.IndyTest$", null);
+		}
+		Assert.assertTrue(throwsOnNull());
+	}
+	
+	@Test
+	public void readsStayCheckedWhenStoresAreNot() {
+		Assume.assumeTrue(indyMode);
+		
+		// Neither elideRedundantReads nor invariant may rely on a store check whose policy is changed
+		Holder holder = new Holder();
+		NotNullHelper.setCheckPolicy("test.IndyTest$Holder.set(", CheckPolicy.OFF);
+		NotNullHelper.setCheckPolicy(REPLACE_STORE, CheckPolicy.COUNT);
+		try {
+			holder.set(null);
+			try {
+				holder.hash();
+				Assert.fail();
+			} catch (GetFieldNotNullCheckException e) {
+			}
+			try {
+				holder.replace(null);
+				Assert.fail();
+			} catch (GetFieldNotNullCheckException e) {
+			}
+		} finally {
+			NotNullHelper.setCheckPolicy("test.IndyTest$Holder.set(", null);
+			NotNullHelper.setCheckPolicy(REPLACE_STORE, null);
+		}
+	}
+	
+	@Test
+	public void policyThroughMBean() throws Exception {
+		Assume.assumeTrue(indyMode);
+		
+		ObjectName name = new ObjectName("notnullcheckweaver:type=WeaverControl");
+		String[] signature = {String.class.getName(), String.class.getName()};
+		ManagementFactory.getPlatformMBeanServer().invoke(name, "setCheckPolicy", new Object[] {SITE, "off"}, signature);
+		try {
+			Assert.assertFalse(throwsOnNull());
+		} finally {
+			ManagementFactory.getPlatformMBeanServer().invoke(name, "setCheckPolicy", new Object[] {SITE, ""}, signature);
+		}
+		Assert.assertTrue(throwsOnNull());
+	}
+}
@@ -0,0 +1,77 @@
+package test;
+
+import notnullcheckweaver.ArgumentNotNullCheckException;
+import notnullcheckweaver.CheckSite;
+import notnullcheckweaver.ConstructorFieldNotNullCheckException;
+import notnullcheckweaver.Nullable;
+import notnullcheckweaver.PutFieldNotNullCheckException;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class LightExceptionsTest {
+	
+	static final boolean lightExceptionsMode = System.getProperty("notnullcheckweaver.agentargs", "").contains("lightExceptions=true");
+	
+	static class Account {
+		String owner;
+		
+		Account(String owner) {
+			this.owner = owner;
+		}
+		
+		Account(@Nullable String owner, int balance) {
+			if (owner != null)
+				this.owner = owner;
+		}
+		
+		void transfer(int amount, String recipient) {
+		}
+		
+		void setOwner(@Nullable String owner) {
+			this.owner = owner;
+		}
+	}
+	
+	@Test
+	public void argument() {
+		Assume.assumeTrue(lightExceptionsMode);
+		
+		try {
+			new Account("Alice").transfer(10, null);
+			Assert.fail();
+		} catch (ArgumentNotNullCheckException e) {
+			Assert.assertEquals(0, e.getStackTrace().length);
+			Assert.assertEquals(1, e.getArgumentIndex());
+			Assert.assertEquals("recipient", e.getParameterName());
+			CheckSite site = e.getCheckSite();
+			Assert.assertEquals(Account.class.getName(), site.getClassName());
+			Assert.assertEquals("transfer", site.getMethodName());
+			Assert.assertEquals("(ILjava/lang/String;)V", site.getMethodDescriptor());
+			Assert.assertEquals("ARGUMENT", site.getKind());
+			Assert.assertEquals("1", site.getDetail());
+			Assert.assertEquals("Argument for @NotNull parameter recipient of "+Account.class.getName()+".transfer(ILjava/lang/String;)V is null.", e.getMessage());
+		}
+	}
+	
+	@Test
+	public void fields() {
+		Assume.assumeTrue(lightExceptionsMode);
+		
+		try {
+			new Account("Alice").setOwner(null);
+			Assert.fail();
+		} catch (PutFieldNotNullCheckException e) {
+			Assert.assertEquals("owner", e.getCheckSite().getDetail());
+			Assert.assertEquals("setOwner", e.getCheckSite().getMethodName());
+		}
+		try {
+			new Account(null, 0);
+			Assert.fail();
+		} catch (ConstructorFieldNotNullCheckException e) {
+			Assert.assertEquals("owner", e.getFieldName());
+			Assert.assertEquals("Constructor of "+Account.class.getName()+" did not initialize @NotNull field owner.", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package test;
+
+import notnullcheckweaver.ArgumentNotNullCheckException;
+import notnullcheckweaver.NotNull;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.changed.Changed;
+
+public class PackageChangeTest {
+	
+	@Test
+	public void checksFollowPackageNullness() {
+		// The build also makes test.changed not-null and weaves it again, with the manifest of the previous run
+		boolean notNull = Changed.class.getPackage().isAnnotationPresent(NotNull.class);
+		try {
+			Changed.accept(null);
+			Assert.assertFalse(notNull);
+		} catch (ArgumentNotNullCheckException e) {
+			Assert.assertTrue(notNull);
+		}
+	}
+}
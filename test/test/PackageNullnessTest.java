@@ -0,0 +1,22 @@
+package test;
+
+import notnullcheckweaver.ArgumentNotNullCheckException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import test.filtered.inner.Inherited;
+
+public class PackageNullnessTest {
+	
+	@Test
+	public void inheritedThroughExcludedPackage() {
+		// The build also runs this test with test.filtered. excluded and test.filtered.inner. included again
+		try {
+			Inherited.use(null);
+			Assert.fail();
+		} catch (ArgumentNotNullCheckException e) {
+			Assert.assertEquals(0, e.getArgumentIndex());
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import notnullcheckweaver.ArgumentNotNullCheckException;
+import notnullcheckweaver.Nullable;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class PrivateArgumentsTest {
+	
+	static final boolean elidePrivateArgumentsMode = System.getProperty("notnullcheckweaver.agentargs", "").contains("elidePrivateArguments=true");
+	
+	static class Formatter {
+		String prefix = "> ";
+		
+		String quote(String text) {
+			String quoted = text;
+			return pad(quoted, prefix);
+		}
+		
+		int size(@Nullable String text) {
+			return length(text);
+		}
+		
+		private String pad(String text, String prefix) {
+			return prefix + text.trim();
+		}
+		
+		private int length(String text) {
+			return text.length();
+		}
+		
+		private int neverCalled(String text) {
+			return text.length();
+		}
+	}
+	
+	static Throwable invokeWithNull(String methodName) throws Exception {
+		Method method = Formatter.class.getDeclaredMethod(methodName, String.class);
+		method.setAccessible(true);
+		try {
+			method.invoke(new Formatter(), (Object)null);
+		} catch (InvocationTargetException e) {
+			return e.getCause();
+		}
+		throw new AssertionError();
+	}
+	
+	@Test
+	public void checkedCallers() throws Exception {
+		Assume.assumeTrue(elidePrivateArgumentsMode);
+		
+		Assert.assertEquals("> hi", new Formatter().quote("hi"));
+		Method pad = Formatter.class.getDeclaredMethod("pad", String.class, String.class);
+		pad.setAccessible(true);
+		try {
+			pad.invoke(new Formatter(), null, "> ");
+			Assert.fail();
+		} catch (InvocationTargetException e) {
+			Assert.assertTrue(e.getCause() instanceof NullPointerException); // Not checked
+		}
+	}
+	
+	@Test
+	public void uncheckedCallers() throws Exception {
+		try {
+			new Formatter().size(null);
+			Assert.fail();
+		} catch (ArgumentNotNullCheckException e) {
+		}
+		Assert.assertTrue(invokeWithNull("length") instanceof ArgumentNotNullCheckException);
+		Assert.assertTrue(invokeWithNull("neverCalled") instanceof ArgumentNotNullCheckException);
+	}
+}
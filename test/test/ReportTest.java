@@ -0,0 +1,59 @@
+package test;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class ReportTest {
+	
+	static final boolean reportMode = System.getProperty("notnullcheckweaver.agentargs", "").contains("report=");
+	
+	static class Target {
+		int accepted;
+		
+		void accept(Object object) {
+			accepted++;
+		}
+	}
+	
+	static boolean reportContains(String text) throws IOException {
+		BufferedReader reader;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream("testreport.log"), "UTF-8"));
+		} catch (FileNotFoundException e) {
+			return false;
+		}
+		try {
+			for (String line; (line = reader.readLine()) != null; )
+				if (line.contains(text))
+					return true;
+			return false;
+		} finally {
+			reader.close();
+		}
+	}
+	
+	@Test
+	public void reportsInsteadOfThrowing() throws Exception {
+		Assume.assumeTrue(reportMode);
+		
+		Target target = new Target();
+		target.accept(null);
+		Assert.assertEquals(1, target.accepted);
+		
+		// The reporter thread writes the record after the check has returned.
+		String site = Target.class.getName()+".accept(Ljava/lang/Object;)V ARGUMENT 0";
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!reportContains(site)) {
+			if (System.currentTimeMillis() > deadline)
+				Assert.fail("No report of "+site);
+			Thread.sleep(20);
+		}
+	}
+}
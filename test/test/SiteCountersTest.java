@@ -0,0 +1,148 @@
+package test;
+
+import notnullcheckweaver.CheckSite;
+import notnullcheckweaver.NotNullHelper;
+import notnullcheckweaver.Nullable;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class SiteCountersTest {
+	
+	static final boolean siteCountersMode = System.getProperty("notnullcheckweaver.agentargs", "").contains("siteCounters=true");
+	
+	static class Greeter {
+		String greet(String name) {
+			return "Hello, "+name;
+		}
+	}
+	
+	static class Temperature {
+		Double degrees;
+		
+		Temperature(Double degrees) {
+			if (degrees.doubleValue() > -273.15) // Not known to initialize degrees on every path
+				this.degrees = degrees;
+		}
+		
+		Temperature() {
+			this(Double.valueOf(20));
+		}
+	}
+	
+	static class Message {
+		String sender;
+		String text;
+		
+		Message(String sender, String text) {
+			this.sender = sender;
+			this.text = text;
+		}
+	}
+	
+	static class Name implements Comparable<Name> {
+		final String text;
+		
+		Name(String text) {
+			this.text = text;
+		}
+		
+		public int compareTo(Name other) {
+			return text.compareTo(other.text);
+		}
+	}
+	
+	static class Echo {
+		String echo(String text) {
+			return text;
+		}
+	}
+	
+	@Nullable CheckSite findSite(Class<?> c, String methodName, String kind) {
+		for (CheckSite site : NotNullHelper.getCheckSites())
+			if (site.getClassName().equals(c.getName()) && site.getMethodName().equals(methodName) && site.getKind().equals(kind))
+				return site;
+		return null;
+	}
+	
+	@Nullable CheckSite findSite(String methodName, String kind) {
+		return findSite(Greeter.class, methodName, kind);
+	}
+	
+	@Test
+	public void countsPerSite() {
+		Assume.assumeTrue(siteCountersMode);
+		
+		Greeter greeter = new Greeter();
+		for (int i = 0; i < 3; i++)
+			greeter.greet("world");
+		
+		CheckSite argument = findSite("greet", "ARGUMENT");
+		Assert.assertNotNull(argument);
+		Assert.assertEquals("0", argument.getDetail());
+		Assert.assertEquals("(Ljava/lang/String;)Ljava/lang/String;", argument.getMethodDescriptor());
+		Assert.assertEquals(3, argument.getCount());
+		Assert.assertEquals(3, findSite("greet", "RESULT").getCount());
+	}
+	
+	@Test
+	public void delegatingConstructorIsNotChecked() {
+		Assume.assumeTrue(siteCountersMode);
+		
+		new Temperature();
+		new Temperature(Double.valueOf(0));
+		
+		CheckSite constructor = findSite(Temperature.class, "<init>", "CONSTRUCTOR");
+		Assert.assertEquals("(Ljava/lang/Double;)V", constructor.getMethodDescriptor());
+		Assert.assertEquals(2, constructor.getCount());
+		for (CheckSite site : NotNullHelper.getCheckSites())
+			if (site.getClassName().equals(Temperature.class.getName()) && site.getKind().equals("CONSTRUCTOR"))
+				Assert.assertSame(constructor, site);
+	}
+	
+	@Test
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public void bridgesAreNotChecked() {
+		Assume.assumeTrue(siteCountersMode);
+		
+		Comparable name = new Name("a");
+		Assert.assertEquals(0, name.compareTo(new Name("a"))); // Through the bridge method compareTo(Object)
+		
+		CheckSite argument = findSite(Name.class, "compareTo", "ARGUMENT");
+		Assert.assertEquals("(Ltest/SiteCountersTest$Name;)I", argument.getMethodDescriptor());
+		Assert.assertEquals(1, argument.getCount());
+		for (CheckSite site : NotNullHelper.getCheckSites())
+			if (site.getClassName().equals(Name.class.getName()))
+				Assert.assertFalse(site.getMethodDescriptor().equals("(Ljava/lang/Object;)I"));
+	}
+	
+	@Test
+	public void initializedFieldsAreNotChecked() {
+		Assume.assumeTrue(siteCountersMode);
+		
+		new Message("Alice", "Hi");
+		Assert.assertNull(findSite(Message.class, "<init>", "CONSTRUCTOR"));
+		Assert.assertNotNull(findSite(Message.class, "<init>", "ARGUMENT"));
+	}
+	
+	@Test
+	public void concurrentCountsAreNotLost() throws InterruptedException {
+		Assume.assumeTrue(siteCountersMode);
+		
+		final Echo echo = new Echo();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 100000; j++)
+						echo.echo("echo");
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		Assert.assertEquals(800000, findSite(Echo.class, "echo", "ARGUMENT").getCount());
+	}
+}
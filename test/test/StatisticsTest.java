@@ -0,0 +1,66 @@
+package test;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class StatisticsTest {
+	
+	static class Point {
+		Object x = "x";
+		Object y;
+		
+		/** Not known to initialize y on every path, so that the end of the constructor is checked. */
+		Point(boolean hasY) {
+			if (hasY)
+				y = "y";
+		}
+		
+		Object getX(Object y) {
+			return x;
+		}
+	}
+	
+	static final boolean packageIndexMode = StatisticsTest.class.getResource("/META-INF/notnullcheckweaver/package-nullness.idx") != null;
+	
+	long get(String attribute) throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		return (Long)server.getAttribute(new ObjectName("notnullcheckweaver:type=WeaverStatistics"), attribute);
+	}
+	
+	@Test
+	public void statistics() throws Exception {
+		ObjectName name = new ObjectName("notnullcheckweaver:type=WeaverStatistics");
+		Assume.assumeTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name)); // Not when woven ahead of time
+		
+		long woven = get("ClassesWoven");
+		new Point(true).getX("y");
+		Assert.assertEquals(woven + 1, get("ClassesWoven"));
+		Assert.assertTrue(get("ClassesInspected") >= get("ClassesWoven") + get("ClassesRejected"));
+		Assert.assertTrue(get("TransformNanos") >= get("MaxTransformNanos"));
+		Assert.assertTrue(get("MaxTransformNanos") > 0);
+		Assert.assertTrue(get("BytesOut") > get("BytesIn"));
+		Assert.assertTrue(get("PackageInfoLookups") + get("PackageIndexHits") > 0);
+		if (get("CacheHits") == 0) { // Classes found in the cache are not counted
+			Assert.assertTrue(get("ArgumentChecks") > 0);
+			Assert.assertTrue(get("ResultChecks") > 0);
+			Assert.assertTrue(get("FieldWriteChecks") > 0);
+			Assert.assertTrue(get("ConstructorChecks") > 0);
+		}
+	}
+	
+	@Test
+	public void packageIndex() throws Exception {
+		Assume.assumeTrue(packageIndexMode);
+		Assume.assumeTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName("notnullcheckweaver:type=WeaverStatistics")));
+		
+		// The test packages are in the index, and only they are woven.
+		Assert.assertTrue(get("PackageIndexHits") > 0);
+		Assert.assertEquals(0, get("PackageInfoLookups"));
+	}
+}
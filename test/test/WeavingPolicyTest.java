@@ -0,0 +1,137 @@
+package test;
+
+import notnullcheckweaver.NotNullCheckException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WeavingPolicyTest {
+	
+	/** Whether the classes are woven with the policy in test/weavingpolicy.txt. */
+	static final boolean policyMode = System.getProperty("notnullcheckweaver.agentargs", "").contains("weavingPolicy=");
+	
+	static class Reads {
+		Object value = "value";
+		
+		boolean isSet() {
+			return value != null;
+		}
+	}
+	
+	static class UncheckedMethods {
+		Object value = "value";
+		
+		Object find(Object key) {
+			return null;
+		}
+		
+		void clear() {
+			value = null;
+		}
+	}
+	
+	static class UncheckedConstruction {
+		Object value;
+	}
+	
+	static class Delegating {
+		Object value;
+		
+		Delegating(Object value) {
+			this.value = value;
+		}
+		
+		Delegating() {
+			this("value");
+			value = null;
+		}
+	}
+	
+	static class Holder {
+		Object value = "value";
+		
+		String describe() {
+			return format(value);
+		}
+		
+		private String format(Object item) {
+			return "[" + item.toString() + "]";
+		}
+	}
+	
+	static class UncheckedWriter {
+		void clear(Holder holder) {
+			holder.value = null; // Not checked, in whatever class
+		}
+	}
+	
+	/** Returns whether the given action threw a failed check. */
+	static boolean fails(Runnable action) {
+		try {
+			action.run();
+			return false;
+		} catch (NotNullCheckException e) {
+			return true;
+		}
+	}
+	
+	@Test
+	public void fieldReads() throws Exception {
+		final Reads reads = new Reads();
+		Reads.class.getDeclaredField("value").set(reads, null);
+		boolean failed = fails(new Runnable() {
+			public void run() {
+				reads.isSet();
+			}
+		});
+		// Invariant mode still checks the read, because the field is not private
+		Assert.assertEquals(!policyMode, failed);
+	}
+	
+	@Test
+	public void noneButArguments() {
+		final UncheckedMethods methods = new UncheckedMethods();
+		Assert.assertTrue(fails(new Runnable() {
+			public void run() {
+				methods.find(null);
+			}
+		}));
+		Assert.assertEquals(!policyMode, fails(new Runnable() {
+			public void run() {
+				methods.find("key");
+			}
+		}));
+		Assert.assertEquals(!policyMode, fails(new Runnable() {
+			public void run() {
+				methods.clear();
+			}
+		}));
+		Assert.assertEquals(!policyMode, fails(new Runnable() {
+			public void run() {
+				new UncheckedConstruction();
+			}
+		}));
+	}
+	
+	@Test
+	public void delegatingConstructorWithoutStoreChecks() {
+		// The store check, or without it the check at the end of the constructor, catches the null
+		Assert.assertTrue(fails(new Runnable() {
+			public void run() {
+				new Delegating();
+			}
+		}));
+	}
+	
+	@Test
+	public void fieldStoredByUncheckedClass() {
+		final Holder holder = new Holder();
+		new UncheckedWriter().clear(holder);
+		// Neither invariant mode nor the argument analysis may take the field for not null
+		Assert.assertTrue(fails(new Runnable() {
+			public void run() {
+				holder.describe();
+			}
+		}));
+	}
+}
@@ -0,0 +1,90 @@
+package test;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class WovenClassCacheTest {
+	
+	/** Whether the weaver keeps woven classes in a cache directory. */
+	static final boolean cacheMode = System.getProperty("notnullcheckweaver.agentargs", "").contains("cache=");
+	
+	static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null)
+			for (File child : files)
+				delete(child);
+		file.delete();
+	}
+	
+	@Test
+	public void manySmallEntries() throws Exception {
+		Assume.assumeTrue(cacheMode);
+		
+		// The cache is internal to the weaver, which the agent loads from its own jar
+		URLClassLoader loader = new URLClassLoader(new URL[] {new File("notnullcheckweaver-weaver.jar").toURI().toURL()}, null);
+		Class<?> cacheClass = Class.forName("notnullcheckweaver.weaver.WovenClassCache", true, loader);
+		Constructor<?> constructor = cacheClass.getDeclaredConstructor(File.class, long.class, byte[].class);
+		Method put = cacheClass.getDeclaredMethod("put", byte[].class, byte[].class, long.class);
+		Method get = cacheClass.getDeclaredMethod("get", byte[].class);
+		constructor.setAccessible(true);
+		put.setAccessible(true);
+		get.setAccessible(true);
+		
+		File directory = File.createTempFile("cache", "");
+		directory.delete();
+		try {
+			Object cache = constructor.newInstance(directory, 64L << 20, new byte[20]);
+			int count = 6000; // More than 4096, in 6 MB of the default 64 MB
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] woven = new byte[1024];
+			for (int i = 0; i < count; i++)
+				put.invoke(cache, digest.digest(Integer.toString(i).getBytes("UTF-8")), woven, 0L);
+			int found = 0;
+			for (int i = 0; i < count; i++)
+				if (get.invoke(cache, digest.digest(Integer.toString(i).getBytes("UTF-8"))) != null)
+					found++;
+			Assert.assertEquals(count, found);
+		} finally {
+			delete(directory);
+		}
+	}
+	
+	@Test
+	public void otherCacheSize() throws Exception {
+		Assume.assumeTrue(cacheMode);
+		
+		URLClassLoader loader = new URLClassLoader(new URL[] {new File("notnullcheckweaver-weaver.jar").toURI().toURL()}, null);
+		Class<?> cacheClass = Class.forName("notnullcheckweaver.weaver.WovenClassCache", true, loader);
+		Constructor<?> constructor = cacheClass.getDeclaredConstructor(File.class, long.class, byte[].class);
+		Method put = cacheClass.getDeclaredMethod("put", byte[].class, byte[].class, long.class);
+		Method get = cacheClass.getDeclaredMethod("get", byte[].class);
+		constructor.setAccessible(true);
+		put.setAccessible(true);
+		get.setAccessible(true);
+		
+		File directory = File.createTempFile("cache", "");
+		directory.delete();
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] key = digest.digest("key".getBytes("UTF-8"));
+			Object cache = constructor.newInstance(directory, 64L << 20, new byte[20]);
+			put.invoke(cache, key, new byte[1024], 0L);
+			// A JVM with another cache size must leave the index that this one has mapped alone
+			Object otherCache = constructor.newInstance(directory, 1L << 20, new byte[20]);
+			Assert.assertNull(get.invoke(otherCache, key));
+			put.invoke(otherCache, key, new byte[1024], 0L);
+			Assert.assertNotNull(get.invoke(otherCache, key));
+			Assert.assertNotNull(get.invoke(cache, key));
+		} finally {
+			delete(directory);
+		}
+	}
+}
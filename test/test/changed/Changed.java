@@ -0,0 +1,7 @@
+package test.changed;
+
+/** A class whose package nullness the build changes between runs of the offline weaver; see PackageChangeTest. */
+public class Changed {
+	public static void accept(Object value) {
+	}
+}
@@ -0,0 +1,4 @@
+@Nullable
+package test.changed;
+
+import notnullcheckweaver.Nullable;
\ No newline at end of file
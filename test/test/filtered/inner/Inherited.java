@@ -0,0 +1,7 @@
+package test.filtered.inner;
+
+/** In a package without a package-info, under one without either, so that it inherits the nullness of test. */
+public class Inherited {
+	public static void use(Object o) {
+	}
+}